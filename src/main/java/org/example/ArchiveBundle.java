@@ -0,0 +1,103 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * A day's archive: user files compressed one gzip member each and concatenated, so the whole bundle is still
+ * a valid .gz and any single file can be read back from its offset and length without touching the rest.
+ */
+class ArchiveBundle {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ArchiveBundle() {
+    }
+
+    // Streams the source into a standalone gzip member and returns the CRC32 of the uncompressed bytes
+    static long compress(Path source, Path member) throws IOException {
+        try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(source), new CRC32());
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(member), BUFFER_SIZE)) {
+            in.transferTo(out);
+            return in.getChecksum().getValue();
+        }
+    }
+
+    static long compress(ByteBuffer content, Path member) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(member), BUFFER_SIZE)) {
+            out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+        }
+        return crc.getValue();
+    }
+
+    // Appends a compressed member to the bundle and returns the offset it starts at
+    static long append(FileChannel bundle, Path member) throws IOException {
+        long offset = bundle.size();
+        try (FileChannel in = FileChannel.open(member, StandardOpenOption.READ)) {
+            long length = in.size();
+            long copied = 0;
+            while (copied < length) {
+                copied += in.transferTo(copied, length - copied, bundle.position(offset + copied));
+            }
+        }
+        return offset;
+    }
+
+    // Decompresses one member into out and returns the CRC32 of what was written
+    static long extract(Path bundle, long offset, long length, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(bundle, StandardOpenOption.READ);
+             CheckedInputStream in = new CheckedInputStream(new GZIPInputStream(new MemberInputStream(channel, offset, length), BUFFER_SIZE), new CRC32())) {
+            in.transferTo(out);
+            return in.getChecksum().getValue();
+        }
+    }
+
+    // Bounds reads to one member; GZIPInputStream would otherwise carry on into the next one
+    private static final class MemberInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        MemberInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new IOException("Archive bundle is shorter than its index");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+    }
+}
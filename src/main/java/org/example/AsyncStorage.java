@@ -0,0 +1,316 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Runs storage calls on a bounded I/O pool and returns CompletableFutures. Calls for the same user are
+ * chained, so they execute one at a time in submission order; different users run in parallel.
+ * The blocking StorageEngine methods wait on the same queue, so mixing both styles keeps that order.
+ * Do not call the blocking methods from inside a storage task of the same user: it would wait on itself.
+ */
+public class AsyncStorage implements StorageEngine {
+    private static final int IO_THREADS = Integer.getInteger("babyfeedbot.io.threads", 4);
+    private static final int IO_QUEUE_SIZE = Integer.getInteger("babyfeedbot.io.queueSize", 1024);
+    private final StorageEngine engine;
+    private final ThreadPoolExecutor executor;
+    // Last submitted call per user; an entry disappears once its call completes and nothing is queued behind it
+    private final Map<Long, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    private interface StorageCall<T> {
+        T call() throws IOException;
+    }
+
+    public AsyncStorage(StorageEngine engine) {
+        this.engine = engine;
+        AtomicInteger threadNumber = new AtomicInteger();
+        // A full queue makes the submitting thread run the call itself, which slows producers down instead of failing
+        executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(IO_QUEUE_SIZE), r -> {
+            Thread t = new Thread(r, "storage-io-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, (r, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("Storage is closed");
+            }
+            r.run();
+        });
+    }
+
+    private <T> CompletableFuture<T> submit(long userId, StorageCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                result.complete(call.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        };
+        Runnable schedule = () -> {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        };
+        CompletableFuture<?> previous = tails.put(userId, result);
+        if (previous == null) {
+            schedule.run();
+        } else {
+            previous.whenComplete((value, error) -> schedule.run());
+        }
+        result.whenComplete((value, error) -> tails.remove(userId, result));
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            } else if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    public CompletableFuture<Integer> addRecordAsync(long userId, String date, String time, int amountMl, String regurg) {
+        return submit(userId, () -> engine.addRecord(userId, date, time, amountMl, regurg));
+    }
+
+    public CompletableFuture<UserSnapshot> getSnapshotAsync(long userId) {
+        return submit(userId, () -> engine.getSnapshot(userId));
+    }
+
+    public CompletableFuture<List<Record>> listRecordsAsync(long userId) {
+        return submit(userId, () -> engine.listRecords(userId));
+    }
+
+    public CompletableFuture<List<Record>> listRecordsByDateAsync(long userId, String date) {
+        return submit(userId, () -> engine.listRecordsByDate(userId, date));
+    }
+
+    public CompletableFuture<List<Record>> listRecordsBetweenDatesAsync(long userId, String start, String end) {
+        return submit(userId, () -> engine.listRecordsBetweenDates(userId, start, end));
+    }
+
+    public CompletableFuture<List<Record>> listRecordsBetweenDatesAsync(long userId, String start, String end, int offset, int limit) {
+        return submit(userId, () -> engine.listRecordsBetweenDates(userId, start, end, offset, limit));
+    }
+
+    public CompletableFuture<List<Record>> listLatestRecordsAsync(long userId, int count) {
+        return submit(userId, () -> engine.listLatestRecords(userId, count));
+    }
+
+    public CompletableFuture<Record> getLastRecordAsync(long userId) {
+        return submit(userId, () -> engine.getLastRecord(userId));
+    }
+
+    public CompletableFuture<DailyStats> getDailyStatsAsync(long userId, String date) {
+        return submit(userId, () -> engine.getDailyStats(userId, date));
+    }
+
+    public CompletableFuture<List<DailyStats>> listDailyStatsAsync(long userId, String start, String end) {
+        return submit(userId, () -> engine.listDailyStats(userId, start, end));
+    }
+
+    public CompletableFuture<DailyStats> summarizeBetweenDatesAsync(long userId, String start, String end) {
+        return submit(userId, () -> engine.summarizeBetweenDates(userId, start, end));
+    }
+
+    public CompletableFuture<Boolean> deleteByIdAsync(int id, long userId) {
+        return submit(userId, () -> engine.deleteById(id, userId));
+    }
+
+    public CompletableFuture<Boolean> updateRecordAsync(int id, long userId, Optional<String> date, Optional<String> time, Optional<Integer> amount, Optional<String> regurg) {
+        return submit(userId, () -> engine.updateRecord(id, userId, date, time, amount, regurg));
+    }
+
+    public CompletableFuture<Boolean> updateRegurgAsync(int id, long userId, String newRegurg) {
+        return submit(userId, () -> engine.updateRegurg(id, userId, newRegurg));
+    }
+
+    public CompletableFuture<Void> deleteAllForUserAsync(long userId) {
+        return submit(userId, () -> {
+            engine.deleteAllForUser(userId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> saveDeletePreferenceAsync(long chatId, boolean deleteMessages) {
+        return submit(chatId, () -> {
+            engine.saveDeletePreference(chatId, deleteMessages);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> saveTimeZonePreferenceAsync(long chatId, String zone) {
+        return submit(chatId, () -> {
+            engine.saveTimeZonePreference(chatId, zone);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> saveHeaderMessageIdAsync(long chatId, int messageId) {
+        return submit(chatId, () -> {
+            engine.saveHeaderMessageId(chatId, messageId);
+            return null;
+        });
+    }
+
+    @Override
+    public void loadCacheIfNeeded() throws IOException {
+        engine.loadCacheIfNeeded();
+    }
+
+    // Lets queued calls finish before the engine flushes and closes. Calls chained behind another user call reach the
+    // pool only when it completes, so the tails are awaited first; a shutdown before that would reject them.
+    @Override
+    public void close() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        try {
+            CompletableFuture.allOf(tails.values().toArray(new CompletableFuture<?>[0]))
+                    .get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Failures went to the callers; whatever is still running is left to the shutdown below
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        engine.close();
+    }
+
+    @Override
+    public int addRecord(long userId, String date, String time, int amountMl, String regurg) throws IOException {
+        return await(addRecordAsync(userId, date, time, amountMl, regurg));
+    }
+
+    @Override
+    public UserSnapshot getSnapshot(long userId) throws IOException {
+        return await(getSnapshotAsync(userId));
+    }
+
+    @Override
+    public List<Record> listRecords(long userId) throws IOException {
+        return await(listRecordsAsync(userId));
+    }
+
+    @Override
+    public List<Record> listRecordsByDate(long userId, String date) throws IOException {
+        return await(listRecordsByDateAsync(userId, date));
+    }
+
+    @Override
+    public List<Record> listRecordsBetweenDates(long userId, String start, String end) throws IOException {
+        return await(listRecordsBetweenDatesAsync(userId, start, end));
+    }
+
+    @Override
+    public List<Record> listRecordsBetweenDates(long userId, String start, String end, int offset, int limit) throws IOException {
+        return await(listRecordsBetweenDatesAsync(userId, start, end, offset, limit));
+    }
+
+    @Override
+    public List<Record> listLatestRecords(long userId, int count) throws IOException {
+        return await(listLatestRecordsAsync(userId, count));
+    }
+
+    @Override
+    public Record getLastRecord(long userId) throws IOException {
+        return await(getLastRecordAsync(userId));
+    }
+
+    @Override
+    public DailyStats getDailyStats(long userId, String date) throws IOException {
+        return await(getDailyStatsAsync(userId, date));
+    }
+
+    @Override
+    public List<DailyStats> listDailyStats(long userId, String start, String end) throws IOException {
+        return await(listDailyStatsAsync(userId, start, end));
+    }
+
+    @Override
+    public DailyStats summarizeBetweenDates(long userId, String start, String end) throws IOException {
+        return await(summarizeBetweenDatesAsync(userId, start, end));
+    }
+
+    @Override
+    public boolean deleteById(int id, long userId) throws IOException {
+        return await(deleteByIdAsync(id, userId));
+    }
+
+    @Override
+    public boolean updateRecord(int id, long userId, Optional<String> date, Optional<String> time, Optional<Integer> amount, Optional<String> regurg) throws IOException {
+        return await(updateRecordAsync(id, userId, date, time, amount, regurg));
+    }
+
+    @Override
+    public boolean updateRegurg(int id, long userId, String newRegurg) throws IOException {
+        return await(updateRegurgAsync(id, userId, newRegurg));
+    }
+
+    @Override
+    public void deleteAllForUser(long userId) throws IOException {
+        await(deleteAllForUserAsync(userId));
+    }
+
+    @Override
+    public BackupCut openBackupCut() throws IOException {
+        return engine.openBackupCut();
+    }
+
+    @Override
+    public boolean backupDatabase(Path target) throws IOException {
+        return engine.backupDatabase(target);
+    }
+
+    @Override
+    public long writeLatencyMicros() {
+        return engine.writeLatencyMicros();
+    }
+
+    @Override
+    public ChatProfile getProfile(long chatId) {
+        return engine.getProfile(chatId);
+    }
+
+    @Override
+    public void saveDeletePreference(long chatId, boolean deleteMessages) throws IOException {
+        await(saveDeletePreferenceAsync(chatId, deleteMessages));
+    }
+
+    @Override
+    public void saveTimeZonePreference(long chatId, String zone) throws IOException {
+        await(saveTimeZonePreferenceAsync(chatId, zone));
+    }
+
+    @Override
+    public void saveHeaderMessageId(long chatId, int messageId) throws IOException {
+        await(saveHeaderMessageIdAsync(chatId, messageId));
+    }
+}
@@ -17,17 +17,30 @@ import java.io.IOException;
 import java.time.*;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class BabyBot extends TelegramLongPollingBot {
-    private final Storage storage = new Storage();
+    private final AsyncStorage storage = new AsyncStorage(StorageEngine.create());
+    // Screens are rendered and sent here once their storage call completes, keeping network waits off the I/O pool
+    private final ExecutorService renderExecutor = Executors.newFixedThreadPool(
+            Integer.getInteger("babyfeedbot.render.threads", 4), r -> {
+                Thread t = new Thread(r, "bot-render");
+                t.setDaemon(true);
+                return t;
+            });
     private final Map<Long, State> userStates = new ConcurrentHashMap<>();
     private final Map<Long, Map<String, Object>> userTempData = new ConcurrentHashMap<>();
-    private final Map<Long, List<Integer>> lastBotMessageIds = new ConcurrentHashMap<>();
-    private final Map<Long, Integer> headerMessageIds = new ConcurrentHashMap<>();
-    private final Map<Long, Boolean> userDeletePreferences = new ConcurrentHashMap<>();
-    private final Map<Long, ZoneId> userZones = new ConcurrentHashMap<>();
+    private final Map<Long, Queue<Integer>> lastBotMessageIds = new ConcurrentHashMap<>();
+    // Last update per chat. A chat's next update is handled only once this one and the screens it rendered are done,
+    // so a late screen never overwrites the state of a flow the user has started since
+    private final Map<Long, CompletableFuture<?>> chatTails = new ConcurrentHashMap<>();
+    // Screens started by the update being handled on this thread
+    private final ThreadLocal<List<CompletableFuture<?>>> startedRenders = new ThreadLocal<>();
 
     private enum State {
         IDLE,
@@ -56,32 +69,26 @@ public class BabyBot extends TelegramLongPollingBot {
         super(new DefaultBotOptions());
         try {
             storage.loadCacheIfNeeded();
-            loadUserPreferences();
-            loadUserTimeZones();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void loadUserPreferences() throws IOException {
-        Map<Long, Boolean> preferences = storage.getAllDeletePreferences();
-        userDeletePreferences.putAll(preferences);
+    public StorageEngine getStorage() {
+        return storage;
     }
 
-    private void loadUserTimeZones() throws IOException {
-        Map<Long, String> zones = storage.getAllTimeZones();
-        for (Map.Entry<Long, String> entry : zones.entrySet()) {
-            try {
-                userZones.put(entry.getKey(), ZoneId.of(entry.getValue()));
-            } catch (DateTimeException e) {
-                e.printStackTrace();
-            }
+    public void shutdown() {
+        renderExecutor.shutdown();
+        try {
+            storage.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     private void saveUserPreference(long chatId, boolean deleteMessages) throws IOException {
         storage.saveDeletePreference(chatId, deleteMessages);
-        userDeletePreferences.put(chatId, deleteMessages);
     }
 
     @Override
@@ -99,14 +106,39 @@ public class BabyBot extends TelegramLongPollingBot {
         if (update.hasMessage() && update.getMessage().hasText()) {
             Message message = update.getMessage();
             long chatId = message.getChatId();
-            int userMessageId = message.getMessageId();
-            String text = message.getText();
-            System.out.println("ChatId: " + chatId + ", text: " + text);
-            handleUserText(chatId, text, userMessageId);
+            inChat(chatId, () -> {
+                System.out.println("ChatId: " + chatId + ", text: " + message.getText());
+                handleUserText(chatId, message.getText(), message.getMessageId());
+            });
         } else if (update.hasCallbackQuery()) {
             CallbackQuery callbackQuery = update.getCallbackQuery();
-            long chatId = callbackQuery.getMessage().getChatId();
-            handleCallback(callbackQuery);
+            inChat(callbackQuery.getMessage().getChatId(), () -> handleCallback(callbackQuery));
+        }
+    }
+
+    // Runs the handler after the chat's previous update is done; the polling thread only queues it if one is in progress
+    private void inChat(long chatId, Runnable handler) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable run = () -> {
+            List<CompletableFuture<?>> renders = new ArrayList<>();
+            startedRenders.set(renders);
+            try {
+                handler.run();
+            } catch (RuntimeException e) {
+                System.err.println("Ошибка обработки сообщения для " + chatId + ": " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                startedRenders.remove();
+                // Also after an Error, or the chat's later updates would wait behind this one forever
+                CompletableFuture.allOf(renders.toArray(new CompletableFuture<?>[0])).whenComplete((value, error) -> done.complete(null));
+            }
+        };
+        CompletableFuture<?> previous = chatTails.put(chatId, done);
+        done.whenComplete((value, error) -> chatTails.remove(chatId, done));
+        if (previous == null) {
+            run.run();
+        } else {
+            previous.whenComplete((value, error) -> run.run());
         }
     }
 
@@ -140,7 +172,8 @@ public class BabyBot extends TelegramLongPollingBot {
     }
 
     private void handleStartCommand(long chatId) {
-        if (!userDeletePreferences.containsKey(chatId)) {
+        ChatProfile profile = storage.getProfile(chatId);
+        if (profile.getDeleteMessages() == null) {
             userStates.put(chatId, State.AWAITING_DELETE_PREFERENCE);
             SendMessage message = new SendMessage();
             message.setChatId(String.valueOf(chatId));
@@ -148,7 +181,7 @@ public class BabyBot extends TelegramLongPollingBot {
             message.setReplyMarkup(createDeletePreferenceInline());
             sendAndAdd(chatId, message);
         } else {
-            if (!userZones.containsKey(chatId)) {
+            if (profile.getZone() == null) {
                 askTimeZonePreference(chatId);
             } else {
                 sendWelcomeMessage(chatId);
@@ -169,7 +202,7 @@ public class BabyBot extends TelegramLongPollingBot {
     }
 
     private void sendHeaderIfNeeded(long chatId) {
-        if (!headerMessageIds.containsKey(chatId)) {
+        if (storage.getProfile(chatId).getHeaderMessageId() == null) {
             SendMessage header = new SendMessage();
             header.setChatId(String.valueOf(chatId));
             header.setText("👶 Бот для отметки кормлений малыша");
@@ -180,27 +213,38 @@ public class BabyBot extends TelegramLongPollingBot {
             header.setReplyMarkup(markup);
             try {
                 Message sent = execute(header);
-                headerMessageIds.put(chatId, sent.getMessageId());
-            } catch (TelegramApiException e) {
+                storage.saveHeaderMessageId(chatId, sent.getMessageId());
+            } catch (TelegramApiException | IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
     private ZoneId getUserZone(long chatId) {
-        return userZones.getOrDefault(chatId, Utils.DEFAULT_ZONE);
+        ZoneId zone = storage.getProfile(chatId).getZone();
+        return zone != null ? zone : Utils.DEFAULT_ZONE;
+    }
+
+    private <T> void render(long chatId, CompletableFuture<T> query, Consumer<T> screen) {
+        CompletableFuture<Void> rendered = query.thenAcceptAsync(screen, renderExecutor).exceptionally(e -> {
+            System.err.println("Ошибка при чтении данных для " + chatId + ": " + e.getMessage());
+            sendMessage(chatId, "Ошибка при чтении данных.");
+            return null;
+        });
+        List<CompletableFuture<?>> renders = startedRenders.get();
+        if (renders != null) {
+            renders.add(rendered);
+        }
     }
 
     private void handleLastFeeding(long chatId) {
-        try {
-            List<Record> records = storage.listRecords(chatId);
-            if (records.isEmpty()) {
+        render(chatId, storage.getLastRecordAsync(chatId), last -> {
+            if (last == null) {
                 sendMessage(chatId, "Нет записей о кормлениях.");
                 return;
             }
             ZoneId zone = getUserZone(chatId);
-            Record last = records.get(records.size() - 1);
-            LocalDate lastDate = LocalDate.parse(last.getDate(), Utils.DATE_FORMATTER);
+            LocalDate lastDate = LocalDate.ofEpochDay(last.getEpochDay());
             LocalDate today = LocalDate.now(zone);
             LocalDate yesterday = today.minusDays(1);
             String dateDisplay;
@@ -229,9 +273,7 @@ public class BabyBot extends TelegramLongPollingBot {
                     "Прошло: " + passed + "\n" +
                     message;
             sendMessage(chatId, text);
-        } catch (IOException e) {
-            sendMessage(chatId, "Ошибка при чтении данных.");
-        }
+        });
     }
 
     private void sendDeleteMenu(long chatId) {
@@ -303,23 +345,11 @@ public class BabyBot extends TelegramLongPollingBot {
                             askForEditTime(chatId);
                         }
                     } else if (state == State.AWAITING_STATS_DATE) {
-                        try {
-                            showStatsByDate(chatId, selectedDate);
-                        } catch (IOException e) {
-                            sendMessage(chatId, "Ошибка при чтении данных.");
-                        }
+                        showStatsByDate(chatId, selectedDate);
                     } else if (state == State.AWAITING_LIST_DATE) {
-                        try {
-                            showListByDate(chatId, selectedDate, false);
-                        } catch (IOException e) {
-                            sendMessage(chatId, "Ошибка при чтении данных.");
-                        }
+                        showListByDate(chatId, selectedDate, false);
                     } else if (state == State.AWAITING_DELETE_LIST_DATE) {
-                        try {
-                            showListByDate(chatId, selectedDate, true);
-                        } catch (IOException e) {
-                            sendMessage(chatId, "Ошибка при чтении данных.");
-                        }
+                        showListByDate(chatId, selectedDate, true);
                     } else if (state == State.AWAITING_STATS_START_DATE) {
                         tempData.put("start_date", selectedDate);
                         userStates.put(chatId, State.AWAITING_STATS_END_DATE);
@@ -628,33 +658,21 @@ public class BabyBot extends TelegramLongPollingBot {
             }
             case AWAITING_STATS_DATE -> {
                 if (Utils.isValidDate(text)) {
-                    try {
-                        showStatsByDate(chatId, text);
-                    } catch (IOException e) {
-                        sendMessage(chatId, "Ошибка данных.");
-                    }
+                    showStatsByDate(chatId, text);
                 } else {
                     sendMessage(chatId, "Дата: ДД.ММ.ГГГГ.");
                 }
             }
             case AWAITING_LIST_DATE -> {
                 if (Utils.isValidDate(text)) {
-                    try {
-                        showListByDate(chatId, text, false);
-                    } catch (IOException e) {
-                        sendMessage(chatId, "Ошибка данных.");
-                    }
+                    showListByDate(chatId, text, false);
                 } else {
                     sendMessage(chatId, "Дата: ДД.ММ.ГГГГ.");
                 }
             }
             case AWAITING_DELETE_LIST_DATE -> {
                 if (Utils.isValidDate(text)) {
-                    try {
-                        showListByDate(chatId, text, true);
-                    } catch (IOException e) {
-                        sendMessage(chatId, "Ошибка данных.");
-                    }
+                    showListByDate(chatId, text, true);
                 } else {
                     sendMessage(chatId, "Дата: ДД.ММ.ГГГГ.");
                 }
@@ -820,20 +838,22 @@ public class BabyBot extends TelegramLongPollingBot {
         sendWithDelete(chatId, message);
     }
 
-    private void showStatsByDate(long chatId, String date) throws IOException {
-        List<Record> records = storage.listRecordsByDate(chatId, date);
-        if (records.isEmpty()) {
+    private void showStatsByDate(long chatId, String date) {
+        render(chatId, storage.getSnapshotAsync(chatId), snapshot -> renderStatsByDate(chatId, date, snapshot));
+    }
+
+    private void renderStatsByDate(long chatId, String date, UserSnapshot snapshot) {
+        DailyStats stats = snapshot.getDailyStats(date);
+        if (stats == null) {
             sendMessage(chatId, "Нет записей за " + Utils.formatDateRussian(date) + ".");
             return;
         }
-        int count = records.size();
-        int totalMl = records.stream().mapToInt(Record::getAmountMl).sum();
-        double avgMl = (double) totalMl / count;
+        List<Record> records = snapshot.listRecordsByDate(date);
         StringBuilder sb = new StringBuilder();
         sb.append("📊 Статистика за ").append(Utils.formatDateRussian(date)).append(":\n");
-        sb.append("Кормлений: ").append(count).append("\n");
-        sb.append("Всего мл: ").append(totalMl).append("\n");
-        sb.append("Среднее: ").append(Math.round(avgMl)).append(" мл\n\n");
+        sb.append("Кормлений: ").append(stats.getCount()).append("\n");
+        sb.append("Всего мл: ").append(stats.getTotalMl()).append("\n");
+        sb.append("Среднее: ").append(Math.round(stats.getAverageMl())).append(" мл\n\n");
         sb.append("Список:\n");
         for (int i = 0; i < records.size(); i++) {
             Record r = records.get(i);
@@ -847,39 +867,37 @@ public class BabyBot extends TelegramLongPollingBot {
         userStates.put(chatId, State.IDLE);
     }
 
-    private void showSummaryBetween(long chatId, String start, String end, boolean detailed) throws IOException {
+    private void showSummaryBetween(long chatId, String start, String end, boolean detailed) {
         LocalDate startDate = LocalDate.parse(start, Utils.DATE_FORMATTER);
         LocalDate endDate = LocalDate.parse(end, Utils.DATE_FORMATTER);
         if (endDate.isBefore(startDate)) {
             sendMessage(chatId, "Дата окончания раньше начала. Попробуйте снова.");
             return;
         }
-        List<Record> records = storage.listRecordsBetweenDates(chatId, start, end);
-        if (records.isEmpty()) {
+        render(chatId, storage.getSnapshotAsync(chatId),
+                snapshot -> renderSummaryBetween(chatId, start, end, startDate, endDate, detailed, snapshot));
+    }
+
+    private void renderSummaryBetween(long chatId, String start, String end, LocalDate startDate, LocalDate endDate,
+                                      boolean detailed, UserSnapshot snapshot) {
+        if (snapshot.summarizeBetweenDates(start, end).getCount() == 0) {
             sendMessage(chatId, "Нет записей за период с " + Utils.formatDateRussian(start) + " по " + Utils.formatDateRussian(end) + ".");
             return;
         }
-        Map<LocalDate, List<Record>> groupByDate = records.stream()
-                .collect(Collectors.groupingBy(r -> LocalDate.parse(r.getDate(), Utils.DATE_FORMATTER)));
-        TreeMap<LocalDate, List<Record>> sortedGroup = new TreeMap<>(groupByDate);
         StringBuilder sb = new StringBuilder("📊 Сводка за период с " + startDate.format(Utils.SHORT_DATE_FORMATTER) + " по " + endDate.format(Utils.SHORT_DATE_FORMATTER) + ":\n\n");
-        for (Map.Entry<LocalDate, List<Record>> entry : sortedGroup.entrySet()) {
-            LocalDate day = entry.getKey();
-            List<Record> dayRecords = entry.getValue();
-            dayRecords.sort(Comparator.comparing(r -> LocalTime.parse(r.getTime(), Utils.TIME_FORMATTER)));
-            int count = dayRecords.size();
-            int totalMl = dayRecords.stream().mapToInt(Record::getAmountMl).sum();
-            String dayStr = day.format(Utils.SHORT_DATE_FORMATTER);
+        List<Record> records = detailed ? snapshot.listRecordsBetweenDates(start, end) : List.of();
+        int next = 0;
+        for (DailyStats day : snapshot.listDailyStats(start, end)) {
+            String dayStr = day.getDate().format(Utils.SHORT_DATE_FORMATTER);
             if (detailed) {
-                sb.append(dayStr).append(" - ").append(count).append(" кормлений, \n\n Всего за день ").append(totalMl).append(" мл\n");
-                for (int i = 0; i < dayRecords.size(); i++) {
-                    Record r = dayRecords.get(i);
+                sb.append(dayStr).append(" - ").append(day.getCount()).append(" кормлений, \n\n Всего за день ").append(day.getTotalMl()).append(" мл\n");
+                for (int i = 0; i < day.getCount(); i++) {
+                    Record r = records.get(next++);
                     sb.append(i + 1).append(") ").append(r.getTime()).append(" - ").append(r.getAmountMl()).append("мл - ").append(Utils.regurgToDisplay(r.getRegurg())).append("\n");
                 }
                 sb.append("\n");
             } else {
-                long regurgCount = dayRecords.stream().filter(r -> "milk".equals(r.getRegurg())).count();
-                sb.append(dayStr).append(" - Кормили ").append(count).append(" раз, всего ").append(totalMl).append(" мл, Срыгнули ").append(regurgCount).append(" раз\n");
+                sb.append(dayStr).append(" - Кормили ").append(day.getCount()).append(" раз, всего ").append(day.getTotalMl()).append(" мл, Срыгнули ").append(day.getMilkCount()).append(" раз\n");
             }
         }
         SendMessage message = new SendMessage();
@@ -891,8 +909,11 @@ public class BabyBot extends TelegramLongPollingBot {
         userTempData.remove(chatId);
     }
 
-    private void showListByDate(long chatId, String date, boolean deleteMode) throws IOException {
-        List<Record> records = storage.listRecordsByDate(chatId, date);
+    private void showListByDate(long chatId, String date, boolean deleteMode) {
+        render(chatId, storage.listRecordsByDateAsync(chatId, date), records -> renderListByDate(chatId, date, deleteMode, records));
+    }
+
+    private void renderListByDate(long chatId, String date, boolean deleteMode, List<Record> records) {
         if (records.isEmpty()) {
             sendMessage(chatId, "Нет записей за " + Utils.formatDateRussian(date) + ".");
             return;
@@ -963,7 +984,7 @@ public class BabyBot extends TelegramLongPollingBot {
             boolean yes = data.endsWith("yes");
             try {
                 saveUserPreference(chatId, yes);
-                if (!userZones.containsKey(chatId)) {
+                if (storage.getProfile(chatId).getZone() == null) {
                     askTimeZonePreference(chatId);
                 } else {
                     userStates.put(chatId, State.IDLE);
@@ -1046,11 +1067,7 @@ public class BabyBot extends TelegramLongPollingBot {
             editMessageMarkup(chatId, messageId, markup);
         } else if (data.equals("stats_today")) {
             ZoneId zone = getUserZone(chatId);
-            try {
-                showStatsByDate(chatId, Utils.getCurrentDate(zone));
-            } catch (IOException e) {
-                sendMessage(chatId, "Ошибка.");
-            }
+            showStatsByDate(chatId, Utils.getCurrentDate(zone));
         } else if (data.equals("summary_7days")) {
             ZoneId zone = getUserZone(chatId);
             String today = Utils.getCurrentDate(zone);
@@ -1096,11 +1113,7 @@ public class BabyBot extends TelegramLongPollingBot {
             sendStatsMenu(chatId);
         } else if (data.equals("list_feedings")) {
             ZoneId zone = getUserZone(chatId);
-            try {
-                showListByDate(chatId, Utils.getCurrentDate(zone), false);
-            } catch (IOException e) {
-                sendMessage(chatId, "Ошибка данных.");
-            }
+            showListByDate(chatId, Utils.getCurrentDate(zone), false);
         } else if (data.equals("delete_record")) {
             sendDeleteMenu(chatId);
         } else if (data.equals("help")) {
@@ -1150,20 +1163,12 @@ public class BabyBot extends TelegramLongPollingBot {
             Map<String, Object> temp = userTempData.get(chatId);
             String start = (String) temp.get("start_date");
             String end = (String) temp.get("end_date");
-            try {
-                showSummaryBetween(chatId, start, end, true);
-            } catch (IOException e) {
-                sendMessage(chatId, "Ошибка.");
-            }
+            showSummaryBetween(chatId, start, end, true);
         } else if (data.equals("summary_general")) {
             Map<String, Object> temp = userTempData.get(chatId);
             String start = (String) temp.get("start_date");
             String end = (String) temp.get("end_date");
-            try {
-                showSummaryBetween(chatId, start, end, false);
-            } catch (IOException e) {
-                sendMessage(chatId, "Ошибка.");
-            }
+            showSummaryBetween(chatId, start, end, false);
         } else if (data.startsWith("select_date_")) {
             String button = switch (data) {
                 case "select_date_today" -> "📅 Сегодня";
@@ -1215,9 +1220,7 @@ public class BabyBot extends TelegramLongPollingBot {
         } else if (data.startsWith("timezone_")) {
             String zoneStr = data.substring(9);
             try {
-                ZoneId zoneId = ZoneId.of(zoneStr);
                 storage.saveTimeZonePreference(chatId, zoneStr);
-                userZones.put(chatId, zoneId);
                 if (userTempData.containsKey(chatId) && userTempData.get(chatId).containsKey("from_settings")) {
                     userTempData.remove(chatId);
                     sendSettingsMenu(chatId);
@@ -1274,7 +1277,7 @@ public class BabyBot extends TelegramLongPollingBot {
     }
 
     private void sendSettingsMenu(long chatId) {
-        boolean currentDelete = userDeletePreferences.getOrDefault(chatId, true);
+        boolean currentDelete = storage.getProfile(chatId).shouldDeleteMessages();
         String currentZone = getUserZone(chatId).getId();
         String text = "Настройки:\nУдалять предыдущие сообщения: " + (currentDelete ? "Да" : "Нет") +
                 "\nЧасовой пояс: " + currentZone;
@@ -1521,10 +1524,14 @@ public class BabyBot extends TelegramLongPollingBot {
     }
 
     private void clearPreviousMessages(long chatId) {
-        List<Integer> lastIds = lastBotMessageIds.getOrDefault(chatId, new ArrayList<>());
-        Integer headerId = headerMessageIds.get(chatId);
-        for (int id : lastIds) {
-            if (headerId != null && id == headerId) continue;
+        Queue<Integer> lastIds = lastBotMessageIds.get(chatId);
+        if (lastIds == null) {
+            return;
+        }
+        Integer headerId = storage.getProfile(chatId).getHeaderMessageId();
+        Integer id;
+        while ((id = lastIds.poll()) != null) {
+            if (id.equals(headerId)) continue;
             DeleteMessage del = new DeleteMessage();
             del.setChatId(String.valueOf(chatId));
             del.setMessageId(id);
@@ -1534,13 +1541,12 @@ public class BabyBot extends TelegramLongPollingBot {
                 // ignore
             }
         }
-        lastBotMessageIds.put(chatId, new ArrayList<>());
     }
 
     private Message sendAndAdd(long chatId, SendMessage sendMessage) {
         try {
             Message executed = execute(sendMessage);
-            lastBotMessageIds.computeIfAbsent(chatId, k -> new ArrayList<>()).add(executed.getMessageId());
+            lastBotMessageIds.computeIfAbsent(chatId, k -> new ConcurrentLinkedQueue<>()).add(executed.getMessageId());
             return executed;
         } catch (TelegramApiException e) {
             e.printStackTrace();
@@ -1549,8 +1555,7 @@ public class BabyBot extends TelegramLongPollingBot {
     }
 
     private Message sendWithDelete(long chatId, SendMessage sendMessage) {
-        Boolean deletePref = userDeletePreferences.getOrDefault(chatId, true);
-        if (deletePref) {
+        if (storage.getProfile(chatId).shouldDeleteMessages()) {
             clearPreviousMessages(chatId);
         }
         return sendAndAdd(chatId, sendMessage);
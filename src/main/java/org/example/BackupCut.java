@@ -0,0 +1,81 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * One logical instant across all users, taken for a backup while the bot keeps writing. The first write to a
+ * user after the cut keeps that user's pre-write snapshot here (snapshots are immutable, so nothing is copied);
+ * users not written since the cut are read from the live state when the backup gets to them.
+ */
+public final class BackupCut implements Closeable {
+    // What the backup gets for a user: the state at the cut and whether the user's file on disk holds exactly that
+    static final class Captured {
+        final UserSnapshot snapshot;
+        final int nextId;
+        final boolean matchesFile;
+
+        Captured(UserSnapshot snapshot, int nextId, boolean matchesFile) {
+            this.snapshot = snapshot;
+            this.nextId = nextId;
+            this.matchesFile = matchesFile;
+        }
+    }
+
+    // Left in place of a user once archived, so later writes stop capturing for them
+    private static final Captured ARCHIVED = new Captured(null, 0, false);
+
+    private final Storage storage;
+    private final long sequence;
+    private final List<Long> users;
+    private final Set<Long> pendingAtCut;
+    private final Map<Long, Captured> captured = new ConcurrentHashMap<>();
+
+    BackupCut(Storage storage, long sequence, List<Long> users, Set<Long> pendingAtCut) {
+        this.storage = storage;
+        this.sequence = sequence;
+        this.users = users;
+        this.pendingAtCut = pendingAtCut;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    // Users with files at the time of the cut
+    List<Long> users() {
+        return users;
+    }
+
+    // True if the user had writes not yet on disk at the cut, so the file's size and mtime say nothing about its state
+    boolean hadPendingWrites(long userId) {
+        return pendingAtCut.contains(userId);
+    }
+
+    Captured capture(long userId) throws IOException {
+        return storage.captureForBackup(this, userId);
+    }
+
+    // Called by writers under the user's lock before they change anything
+    void captureBefore(UserRecords records) {
+        long userId = records.getUserId();
+        if (!captured.containsKey(userId)) {
+            captured.putIfAbsent(userId, new Captured(records.snapshot(), records.nextId(), false));
+        }
+    }
+
+    // Called under the user's lock; returns the state kept by a writer, if any, and marks the user archived
+    Captured take(long userId) {
+        Captured previous = captured.put(userId, ARCHIVED);
+        return previous == ARCHIVED ? null : previous;
+    }
+
+    @Override
+    public void close() {
+        storage.closeBackupCut(this);
+    }
+}
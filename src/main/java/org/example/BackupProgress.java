@@ -0,0 +1,66 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters of the backup in progress, or of the last one once it has finished
+public class BackupProgress {
+    private final long startedNanos = System.nanoTime();
+    private final AtomicLong filesTotal = new AtomicLong();
+    private final AtomicLong filesDone = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile long finishedNanos;
+
+    void addTotal(long files) {
+        filesTotal.addAndGet(files);
+    }
+
+    void addRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    void fileDone(long written) {
+        filesDone.incrementAndGet();
+        bytesWritten.addAndGet(written);
+    }
+
+    void finish() {
+        finishedNanos = System.nanoTime();
+    }
+
+    public long getFilesTotal() {
+        return filesTotal.get();
+    }
+
+    public long getFilesDone() {
+        return filesDone.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public boolean isFinished() {
+        return finishedNanos != 0;
+    }
+
+    public long getDurationMillis() {
+        return ((finishedNanos != 0 ? finishedNanos : System.nanoTime()) - startedNanos) / 1_000_000;
+    }
+
+    // Uncompressed bytes archived per second so far
+    public long getBytesPerSecond() {
+        long millis = Math.max(1, getDurationMillis());
+        return getBytesRead() * 1000 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return getFilesDone() + "/" + getFilesTotal() + " файлов, " + getBytesRead() / 1024 + " КБ -> " + getBytesWritten() / 1024
+                + " КБ, " + getBytesPerSecond() / 1024 + " КБ/с, " + getDurationMillis() + " мс";
+    }
+}
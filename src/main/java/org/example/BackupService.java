@@ -1,58 +1,576 @@
-package org.example;
-
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.temporal.ChronoUnit;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
-public class BackupService {
-    private static final String ARCHIVE_DIR = "archive";
-    private static final String USER_FILE_PATTERN = "babyfeedbot_";
-    private static final ZoneId MOSCOW_ZONE = ZoneId.of("Europe/Moscow");
-
-    public static void createArchiveDir() throws IOException {
-        Path archivePath = Paths.get(ARCHIVE_DIR);
-        if (!Files.exists(archivePath)) {
-            Files.createDirectory(archivePath);
-        }
-    }
-
-    public static void archiveNow() throws IOException {
-        String dateStr = LocalDate.now(MOSCOW_ZONE).format(java.time.format.DateTimeFormatter.ofPattern("dd-MM-yyyy"));
-        Path currentDir = Paths.get(".");
-        Files.list(currentDir)
-                .filter(path -> path.getFileName().toString().startsWith(USER_FILE_PATTERN) && path.getFileName().toString().endsWith(".csv"))
-                .forEach(source -> {
-                    try {
-                        String fileName = source.getFileName().toString();
-                        Path target = Paths.get(ARCHIVE_DIR, fileName.replace(".csv", "_" + dateStr + ".csv"));
-                        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                        System.out.println("Архивировано " + fileName + " в " + target);
-                    } catch (IOException e) {
-                        System.err.println("Ошибка архивирования: " + e.getMessage());
-                    }
-                });
-    }
-
-    public static void scheduleDailyArchive() {
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        LocalDateTime now = LocalDateTime.now(MOSCOW_ZONE);
-        LocalDateTime nextMidnight = now.truncatedTo(ChronoUnit.DAYS).plusDays(1);
-        long initialDelay = ChronoUnit.SECONDS.between(now, nextMidnight);
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                archiveNow();
-            } catch (IOException e) {
-                System.err.println("Ошибка архивирования: " + e.getMessage());
-            }
-        }, initialDelay, TimeUnit.DAYS.toSeconds(1), TimeUnit.SECONDS);
-    }
-}
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class BackupService {
+    private static final String ARCHIVE_DIR = "archive";
+    private static final ZoneId MOSCOW_ZONE = ZoneId.of("Europe/Moscow");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final String MANIFEST_PREFIX = "manifest_";
+    private static final String MANIFEST_EXTENSION = ".txt";
+    private static final String CUT_HEADER = "#cut;";
+    private static final String FAILED_HEADER = "#failed;";
+    private static final String BUNDLE_PREFIX = "bundle_";
+    private static final String BUNDLE_EXTENSION = ".gz";
+    private static final String PROGRESS_PREFIX = "progress_";
+    private static final String DATABASE_PREFIX = "database_";
+    private static final String DATABASE_EXTENSION = ".zip";
+    private static final long BACKUP_BYTES_PER_SECOND = Long.getLong("babyfeedbot.backup.bytesPerSecond", 32L * 1024 * 1024);
+    private static final long BACKUP_LATENCY_TARGET_MICROS = Long.getLong("babyfeedbot.backup.latencyTargetMs", 50L) * 1000;
+    private static final long PROGRESS_REPORT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static volatile boolean cancelled;
+    private static volatile BackupProgress progress;
+    private static final int BACKUP_THREADS = Integer.getInteger("babyfeedbot.backup.threads", Runtime.getRuntime().availableProcessors());
+
+    public static void createArchiveDir() throws IOException {
+        Path archivePath = Paths.get(ARCHIVE_DIR);
+        if (!Files.exists(archivePath)) {
+            Files.createDirectory(archivePath);
+        }
+    }
+
+    public static BackupProgress progress() {
+        return progress;
+    }
+
+    // Stops the running backup after the members in flight; the next run on the same day resumes from its progress file
+    public static void cancel() {
+        cancelled = true;
+    }
+
+    // Compresses only users changed since the latest manifest into the day's bundle. The day's manifest still lists
+    // every file, pointing unchanged ones at earlier bundles, so it describes a full set. A file that cannot be read
+    // keeps its entry from the latest manifest and is listed as failed, which marks the manifest partial. A later
+    // run on the same day writes a bundle of its own beside the day's first, so the manifest in place only ever
+    // points at bundles that are complete; the day's bundles the new manifest no longer needs go once it is written.
+    public static void archiveNow(StorageEngine storage) throws IOException {
+        cancelled = false;
+        String dateStr = LocalDate.now(MOSCOW_ZONE).format(DATE_FORMAT);
+        if (archiveDatabase(storage, dateStr)) {
+            return;
+        }
+        String bundleName = bundleNameFor(dateStr);
+        Path bundlePath = Paths.get(ARCHIVE_DIR, bundleName);
+        Path progressPath = Paths.get(ARCHIVE_DIR, PROGRESS_PREFIX + dateStr + MANIFEST_EXTENSION);
+        discardStaleProgress(progressPath);
+        Map<String, ManifestEntry> previous = readManifest(latestManifest());
+        BackupProgress run = new BackupProgress();
+        progress = run;
+        BackupThrottle throttle = new BackupThrottle(BACKUP_BYTES_PER_SECOND, BACKUP_LATENCY_TARGET_MICROS, storage::writeLatencyMicros);
+        List<ManifestEntry> manifest = new ArrayList<>();
+        List<ManifestEntry> carried = new ArrayList<>();
+        List<Member> changed = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<ManifestEntry> written;
+        BackupCut cut = storage.openBackupCut();
+        if (cut == null) {
+            run.finish();
+            throw new IOException("Storage engine has neither a database to copy nor a backup cut to archive");
+        }
+        try {
+            Map<String, ManifestEntry> resumed = readProgress(progressPath, bundlePath);
+            collectCut(cut, previous, resumed, bundleName, manifest, carried, changed, throttle, run);
+            run.addTotal(carried.size() + changed.size());
+            written = changed.isEmpty() && carried.isEmpty() ? List.of()
+                    : writeBundle(bundlePath, progressPath, carried, changed, failed, run);
+        } finally {
+            cut.close();
+            run.finish();
+        }
+        // Without a manifest the bundle is never referenced, and the next run archives these users again
+        verifyCut(written);
+        manifest.addAll(written);
+        for (String fileName : failed) {
+            carryForward(previous, fileName, manifest);
+        }
+        writeManifest(Paths.get(ARCHIVE_DIR, MANIFEST_PREFIX + dateStr + MANIFEST_EXTENSION), cut.sequence(), manifest, failed);
+        Files.deleteIfExists(progressPath);
+        deleteUnreferencedBundles(dateStr, manifest);
+        System.out.println("Архив за " + dateStr + ": упаковано " + (written.size() - carried.size()) + " из " + manifest.size()
+                + " файлов (" + carried.size() + " из прерванного запуска), " + run);
+        if (!failed.isEmpty()) {
+            System.err.println("Архив за " + dateStr + " частичный: не упаковано " + failed.size() + " файлов, для них оставлены прежние копии: "
+                    + String.join(", ", failed));
+        }
+    }
+
+    // Keeps the latest manifest's entry for a file that could not be archived
+    private static void carryForward(Map<String, ManifestEntry> previous, String fileName, List<ManifestEntry> manifest) {
+        ManifestEntry earlier = previous.get(fileName);
+        if (earlier != null && Files.exists(Paths.get(ARCHIVE_DIR, earlier.archivedAs))) {
+            manifest.add(earlier);
+        }
+    }
+
+    // The day's first run writes bundle_dd-MM-yyyy.gz and each later one the next free bundle_dd-MM-yyyy_N.gz. A
+    // bundle only gets its final name once complete, so an interrupted run finds its temporary bundle under the same name.
+    private static String bundleNameFor(String dateStr) {
+        String name = BUNDLE_PREFIX + dateStr + BUNDLE_EXTENSION;
+        for (int run = 2; Files.exists(Paths.get(ARCHIVE_DIR, name)); run++) {
+            name = BUNDLE_PREFIX + dateStr + "_" + run + BUNDLE_EXTENSION;
+        }
+        return name;
+    }
+
+    // Drops the day's bundles that the day's manifest, just written, no longer points into: those of earlier runs
+    // whose members were all archived again, and any left by a run that failed before writing its manifest
+    private static void deleteUnreferencedBundles(String dateStr, List<ManifestEntry> manifest) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (ManifestEntry entry : manifest) {
+            referenced.add(entry.archivedAs);
+        }
+        try (DirectoryStream<Path> bundles = Files.newDirectoryStream(Paths.get(ARCHIVE_DIR), BUNDLE_PREFIX + dateStr + "*" + BUNDLE_EXTENSION)) {
+            for (Path bundle : bundles) {
+                if (!referenced.contains(bundle.getFileName().toString())) {
+                    Files.delete(bundle);
+                }
+            }
+        }
+    }
+
+    // An engine on a database is archived as a whole copy of it; the user files of the file engine are not its data
+    private static boolean archiveDatabase(StorageEngine storage, String dateStr) throws IOException {
+        Path target = Paths.get(ARCHIVE_DIR, DATABASE_PREFIX + dateStr + DATABASE_EXTENSION);
+        Path tmpPath = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.deleteIfExists(tmpPath);
+        try {
+            if (!storage.backupDatabase(tmpPath)) {
+                return false;
+            }
+            Files.move(tmpPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+        System.out.println("Архив за " + dateStr + ": копия базы данных " + target.getFileName() + ", " + Files.size(target) + " байт");
+        return true;
+    }
+
+    // Every user is archived as of the cut. A file whose size and mtime still match the previous manifest, with
+    // no writes in memory at the cut, is unchanged since that archive; the same test keeps members of an
+    // interrupted run of the day, which therefore also hold the state at this cut, though under their own run's cut.
+    private static void collectCut(BackupCut cut, Map<String, ManifestEntry> previous, Map<String, ManifestEntry> resumed,
+                                   String bundleName, List<ManifestEntry> manifest, List<ManifestEntry> carried,
+                                   List<Member> changed, BackupThrottle throttle, BackupProgress run) throws IOException {
+        for (Long userId : cut.users()) {
+            Path live = DataLayout.userFile(userId, RecordFile.EXTENSION);
+            String fileName = live.getFileName().toString();
+            long size = -1;
+            long modified = -1;
+            try {
+                if (Files.exists(live)) {
+                    size = Files.size(live);
+                    modified = Files.getLastModifiedTime(live).toMillis();
+                }
+            } catch (IOException e) {
+                // Without the stat the file counts as changed: it is archived from the cut if that can be read,
+                // and otherwise fails as a member, keeping its previous entry
+                System.err.println("Ошибка архивирования " + fileName + ": " + e.getMessage());
+                size = -1;
+                modified = -1;
+            }
+            if (modified >= 0 && !cut.hadPendingWrites(userId)) {
+                ManifestEntry earlier = previous.get(fileName);
+                if (isUnchanged(earlier, size, modified)) {
+                    manifest.add(earlier);
+                    continue;
+                }
+                ManifestEntry interrupted = resumed.get(fileName);
+                if (interrupted != null && interrupted.cutSequence >= 0 && interrupted.size == size && interrupted.modified == modified) {
+                    carried.add(interrupted);
+                    continue;
+                }
+            }
+            long statSize = size;
+            long statModified = modified;
+            changed.add(new Member(fileName, member -> {
+                BackupCut.Captured captured = cut.capture(userId);
+                ByteBuffer content = RecordFile.encode(captured.snapshot, captured.nextId, cut.sequence());
+                acquire(throttle, content.remaining());
+                run.addRead(content.remaining());
+                long crc = ArchiveBundle.compress(content, member);
+                // A state kept from before a later write is not what the file holds, so the next run must not skip it
+                return new ManifestEntry(fileName, statSize, captured.matchesFile ? statModified : -1, bundleName, 0, 0, crc, cut.sequence());
+            }));
+        }
+    }
+
+    private static void acquire(BackupThrottle throttle, long bytes) throws IOException {
+        try {
+            throttle.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Archiving interrupted", e);
+        }
+    }
+
+    private static boolean isUnchanged(ManifestEntry earlier, long size, long modified) {
+        return earlier != null && earlier.size == size && earlier.modified == modified
+                && Files.exists(Paths.get(ARCHIVE_DIR, earlier.archivedAs));
+    }
+
+    // Reads every member back and checks that it is intact and holds exactly the state at the cut it was taken under;
+    // members carried over from interrupted runs hold the same state under those runs' cuts
+    private static void verifyCut(List<ManifestEntry> written) throws IOException {
+        for (ManifestEntry entry : written) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(entry.length * 4, Integer.MAX_VALUE - 8));
+            long crc = ArchiveBundle.extract(Paths.get(ARCHIVE_DIR, entry.archivedAs), entry.offset, entry.length, content);
+            long userId = entry.userId().getAsLong();
+            if (crc != entry.crc || !RecordFile.isCut(ByteBuffer.wrap(content.toByteArray()), userId, entry.cutSequence)) {
+                throw new IOException("Archive check failed for " + entry.fileName + " in " + entry.archivedAs);
+            }
+        }
+    }
+
+    // Compresses one file into a bundle member and returns its manifest entry, still without a position in the bundle
+    private interface MemberWriter {
+        ManifestEntry write(Path member) throws IOException;
+    }
+
+    private static final class Member {
+        final String fileName;
+        final MemberWriter writer;
+
+        Member(String fileName, MemberWriter writer) {
+            this.fileName = fileName;
+            this.writer = writer;
+        }
+    }
+
+    // Members are compressed in parallel into separate files and appended to the bundle in order as each one is ready.
+    // Each appended member is also listed in the progress file with the cut it holds, so an interrupted run can pick up
+    // where it stopped. Members that fail are added to failed and left out.
+    private static List<ManifestEntry> writeBundle(Path bundlePath, Path progressPath, List<ManifestEntry> carried,
+                                                   List<Member> changed, List<String> failed, BackupProgress run) throws IOException {
+        List<ManifestEntry> written = new ArrayList<>(carried);
+        long end = 0;
+        for (ManifestEntry entry : carried) {
+            end = Math.max(end, entry.offset + entry.length);
+            run.fileDone(0);
+        }
+        StringBuilder progressLines = new StringBuilder();
+        for (ManifestEntry entry : carried) {
+            progressLines.append(progressLine(entry));
+        }
+        Files.writeString(progressPath, progressLines, StandardCharsets.UTF_8);
+        Path members = Files.createTempDirectory(bundlePath.getParent(), "members");
+        Path tmpPath = bundlePath.resolveSibling(bundlePath.getFileName() + ".tmp");
+        ExecutorService pool = Executors.newFixedThreadPool(BACKUP_THREADS, r -> {
+            Thread t = new Thread(r, "backup-compress");
+            t.setDaemon(true);
+            return t;
+        });
+        try (FileChannel bundle = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             Writer progressLog = Files.newBufferedWriter(progressPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+            // Members of the interrupted run that were not carried over are cut off the end
+            bundle.truncate(end);
+            List<Future<ManifestEntry>> entries = new ArrayList<>();
+            for (int i = 0; i < changed.size(); i++) {
+                MemberWriter writer = changed.get(i).writer;
+                Path member = members.resolve(i + BUNDLE_EXTENSION);
+                entries.add(pool.submit(() -> cancelled ? null : writer.write(member)));
+            }
+            long lastReport = System.nanoTime();
+            for (int i = 0; i < changed.size() && !cancelled; i++) {
+                Path member = members.resolve(i + BUNDLE_EXTENSION);
+                try {
+                    ManifestEntry entry = entries.get(i).get();
+                    if (entry == null) {
+                        break;
+                    }
+                    long offset = ArchiveBundle.append(bundle, member);
+                    ManifestEntry placed = new ManifestEntry(entry.fileName, entry.size, entry.modified, entry.archivedAs, offset,
+                            bundle.size() - offset, entry.crc, entry.cutSequence);
+                    written.add(placed);
+                    progressLog.write(progressLine(placed));
+                    progressLog.flush();
+                    run.fileDone(placed.length);
+                } catch (ExecutionException e) {
+                    failed.add(changed.get(i).fileName);
+                    System.err.println("Ошибка архивирования " + changed.get(i).fileName + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Archiving interrupted", e);
+                } finally {
+                    Files.deleteIfExists(member);
+                }
+                if (System.nanoTime() - lastReport >= PROGRESS_REPORT_NANOS) {
+                    lastReport = System.nanoTime();
+                    System.out.println("Архивация: " + run);
+                }
+            }
+            bundle.force(true);
+        } finally {
+            pool.shutdownNow();
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(members)) {
+                for (Path member : left) {
+                    Files.deleteIfExists(member);
+                }
+            }
+            Files.deleteIfExists(members);
+        }
+        if (cancelled) {
+            throw new IOException("Archiving cancelled after " + run);
+        }
+        // The name is new, so no manifest points into the bundle until this run's is written
+        Files.move(tmpPath, bundlePath, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    // Members an interrupted run of the same day already appended to the temporary bundle and that read back intact
+    private static Map<String, ManifestEntry> readProgress(Path progressPath, Path bundlePath) throws IOException {
+        Path tmpPath = bundlePath.resolveSibling(bundlePath.getFileName() + ".tmp");
+        Map<String, ManifestEntry> entries = new HashMap<>();
+        if (!Files.exists(progressPath) || !Files.exists(tmpPath)) {
+            return entries;
+        }
+        long size = Files.size(tmpPath);
+        for (ManifestEntry entry : readManifest(progressPath).values()) {
+            // The progress line may have reached the disk before the member it describes
+            if (entry.offset + entry.length > size) {
+                continue;
+            }
+            try {
+                if (ArchiveBundle.extract(tmpPath, entry.offset, entry.length, OutputStream.nullOutputStream()) == entry.crc) {
+                    entries.put(entry.fileName, entry);
+                }
+            } catch (IOException e) {
+                System.err.println("Skipping damaged member of " + tmpPath + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Продолжение прерванной архивации: " + entries.size() + " файлов уже упаковано");
+        return entries;
+    }
+
+    // Progress of an interrupted run from an earlier day cannot be resumed into today's bundle
+    private static void discardStaleProgress(Path current) throws IOException {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(Paths.get(ARCHIVE_DIR), PROGRESS_PREFIX + "*" + MANIFEST_EXTENSION)) {
+            for (Path progressFile : stale) {
+                if (progressFile.equals(current)) {
+                    continue;
+                }
+                String name = progressFile.getFileName().toString();
+                String dateStr = name.substring(PROGRESS_PREFIX.length(), name.length() - MANIFEST_EXTENSION.length());
+                try (DirectoryStream<Path> bundles = Files.newDirectoryStream(Paths.get(ARCHIVE_DIR),
+                        BUNDLE_PREFIX + dateStr + "*" + BUNDLE_EXTENSION + ".tmp")) {
+                    for (Path bundle : bundles) {
+                        Files.delete(bundle);
+                    }
+                }
+                Files.delete(progressFile);
+            }
+        }
+    }
+
+    static boolean hasProgressToResume() {
+        String dateStr = LocalDate.now(MOSCOW_ZONE).format(DATE_FORMAT);
+        return Files.exists(Paths.get(ARCHIVE_DIR, PROGRESS_PREFIX + dateStr + MANIFEST_EXTENSION));
+    }
+
+    // Writes the archived content of one manifest entry to target and checks it against the recorded checksum
+    static void extract(ManifestEntry entry, Path target) throws IOException {
+        Path tmpPath = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmpPath)) {
+            read(entry, out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
+        }
+        Files.move(tmpPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Streams the archived content of one manifest entry to out; loose copies from before bundles have no checksum
+    static void read(ManifestEntry entry, OutputStream out) throws IOException {
+        Path archived = Paths.get(ARCHIVE_DIR, entry.archivedAs);
+        if (!entry.isBundled()) {
+            Files.copy(archived, out);
+            return;
+        }
+        if (ArchiveBundle.extract(archived, entry.offset, entry.length, out) != entry.crc) {
+            throw new IOException("Checksum mismatch for " + entry.fileName + " in " + entry.archivedAs);
+        }
+    }
+
+    // The manifest of the given day, or the latest one if no date is given
+    static Path manifestFor(String dateStr) throws IOException {
+        return dateStr == null ? latestManifest() : Paths.get(ARCHIVE_DIR, MANIFEST_PREFIX + dateStr + MANIFEST_EXTENSION);
+    }
+
+    static int backupThreads() {
+        return BACKUP_THREADS;
+    }
+
+    // The most recent manifest by the date in its name, or null before the first incremental run
+    static Path latestManifest() throws IOException {
+        Path latest = null;
+        LocalDate latestDate = null;
+        try (DirectoryStream<Path> manifests = Files.newDirectoryStream(Paths.get(ARCHIVE_DIR), MANIFEST_PREFIX + "*" + MANIFEST_EXTENSION)) {
+            for (Path manifest : manifests) {
+                String name = manifest.getFileName().toString();
+                LocalDate date;
+                try {
+                    date = LocalDate.parse(name.substring(MANIFEST_PREFIX.length(), name.length() - MANIFEST_EXTENSION.length()), DATE_FORMAT);
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                if (latestDate == null || date.isAfter(latestDate)) {
+                    latest = manifest;
+                    latestDate = date;
+                }
+            }
+        }
+        return latest;
+    }
+
+    static Map<String, ManifestEntry> readManifest(Path manifest) throws IOException {
+        Map<String, ManifestEntry> entries = new HashMap<>();
+        if (manifest == null) {
+            return entries;
+        }
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split(";");
+            if (parts.length != 4 && parts.length != 7 && parts.length != 8) {
+                continue;
+            }
+            try {
+                // Manifests from before bundles point at loose copies, which have no offset; only progress lines carry a cut
+                ManifestEntry entry = parts.length == 4
+                        ? new ManifestEntry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], -1, -1, -1)
+                        : new ManifestEntry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3],
+                        Long.parseLong(parts[4]), Long.parseLong(parts[5]), Long.parseLong(parts[6]),
+                        parts.length == 8 ? Long.parseLong(parts[7]) : -1);
+                entries.put(parts[0], entry);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid manifest line in " + manifest + ": " + line);
+            }
+        }
+        return entries;
+    }
+
+    // Files the run of a manifest failed to archive; their entries, if any, are still those of an earlier manifest
+    static List<String> readFailed(Path manifest) throws IOException {
+        List<String> failed = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.startsWith(FAILED_HEADER)) {
+                failed.add(line.substring(FAILED_HEADER.length()));
+            }
+        }
+        return failed;
+    }
+
+    private static void writeManifest(Path manifest, long cutSequence, List<ManifestEntry> entries, List<String> failed) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(CUT_HEADER).append(cutSequence).append('\n');
+        for (String fileName : failed) {
+            sb.append(FAILED_HEADER).append(fileName).append('\n');
+        }
+        for (ManifestEntry entry : entries) {
+            sb.append(manifestLine(entry));
+        }
+        Path tmpPath = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        Files.writeString(tmpPath, sb, StandardCharsets.UTF_8);
+        Files.move(tmpPath, manifest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String manifestLine(ManifestEntry entry) {
+        return fields(entry) + '\n';
+    }
+
+    private static String progressLine(ManifestEntry entry) {
+        return fields(entry) + ';' + entry.cutSequence + '\n';
+    }
+
+    private static String fields(ManifestEntry entry) {
+        return entry.fileName + ';' + entry.size + ';' + entry.modified + ';' + entry.archivedAs
+                + ';' + entry.offset + ';' + entry.length + ';' + entry.crc;
+    }
+
+    // One line of a manifest: a live user file and where its content as of that day is archived
+    static final class ManifestEntry {
+        final String fileName;
+        final long size;
+        final long modified;
+        final String archivedAs;
+        final long offset;
+        final long length;
+        final long crc;
+        // Sequence of the backup cut the member was taken at, or -1 where it is not recorded: manifest lines, and progress
+        // lines of older builds
+        final long cutSequence;
+
+        ManifestEntry(String fileName, long size, long modified, String archivedAs, long offset, long length, long crc) {
+            this(fileName, size, modified, archivedAs, offset, length, crc, -1);
+        }
+
+        ManifestEntry(String fileName, long size, long modified, String archivedAs, long offset, long length, long crc, long cutSequence) {
+            this.fileName = fileName;
+            this.size = size;
+            this.modified = modified;
+            this.archivedAs = archivedAs;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.cutSequence = cutSequence;
+        }
+
+        boolean isBundled() {
+            return offset >= 0;
+        }
+
+        OptionalLong userId() {
+            return DataLayout.parseUserId(Paths.get(fileName));
+        }
+    }
+
+    public static void scheduleDailyArchive(StorageEngine storage) {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+        LocalDateTime now = LocalDateTime.now(MOSCOW_ZONE);
+        LocalDateTime nextMidnight = now.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+        long initialDelay = ChronoUnit.SECONDS.between(now, nextMidnight);
+        Runnable archive = () -> {
+            try {
+                archiveNow(storage);
+            } catch (IOException e) {
+                System.err.println("Ошибка архивирования: " + e.getMessage());
+            }
+        };
+        // A run cut short by a restart is finished right away rather than at the next midnight
+        if (hasProgressToResume()) {
+            scheduler.execute(archive);
+        }
+        scheduler.scheduleAtFixedRate(archive, initialDelay, TimeUnit.DAYS.toSeconds(1), TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+import java.util.function.LongSupplier;
+
+/*
+ * Token bucket that caps backup reads at a byte rate. The rate is halved while foreground writes are slower than
+ * the latency target and creeps back up once they recover, so night feedings are not queued behind the archive.
+ */
+class BackupThrottle {
+    private static final long ADJUST_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final long maxBytesPerSecond;
+    private final long minBytesPerSecond;
+    private final long latencyTargetMicros;
+    private final LongSupplier writeLatencyMicros;
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+    private long lastAdjust = lastRefill;
+
+    // A rate of 0 or less disables throttling
+    BackupThrottle(long maxBytesPerSecond, long latencyTargetMicros, LongSupplier writeLatencyMicros) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.minBytesPerSecond = Math.max(1, maxBytesPerSecond / 16);
+        this.latencyTargetMicros = latencyTargetMicros;
+        this.writeLatencyMicros = writeLatencyMicros;
+        this.bytesPerSecond = maxBytesPerSecond;
+        this.tokens = maxBytesPerSecond;
+    }
+
+    synchronized long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    // Blocks until the bytes fit the current rate; a request larger than one second's worth goes into debt instead
+    void acquire(long bytes) throws InterruptedException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1_000_000_000L / bytesPerSecond);
+        }
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (now - lastAdjust >= ADJUST_INTERVAL_NANOS) {
+            lastAdjust = now;
+            if (writeLatencyMicros.getAsLong() > latencyTargetMicros) {
+                bytesPerSecond = Math.max(minBytesPerSecond, bytesPerSecond / 2);
+            } else {
+                bytesPerSecond = Math.min(maxBytesPerSecond, bytesPerSecond + maxBytesPerSecond / 10);
+            }
+        }
+        tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+        lastRefill = now;
+    }
+}
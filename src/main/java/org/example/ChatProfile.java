@@ -0,0 +1,44 @@
+package org.example;
+
+import java.time.ZoneId;
+
+public class ChatProfile {
+    static final ChatProfile EMPTY = new ChatProfile(null, null, null);
+    private final Boolean deleteMessages;
+    private final ZoneId zone;
+    private final Integer headerMessageId;
+
+    ChatProfile(Boolean deleteMessages, ZoneId zone, Integer headerMessageId) {
+        this.deleteMessages = deleteMessages;
+        this.zone = zone;
+        this.headerMessageId = headerMessageId;
+    }
+
+    public Boolean getDeleteMessages() {
+        return deleteMessages;
+    }
+
+    public boolean shouldDeleteMessages() {
+        return deleteMessages == null || deleteMessages;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    public Integer getHeaderMessageId() {
+        return headerMessageId;
+    }
+
+    ChatProfile withDeleteMessages(boolean value) {
+        return new ChatProfile(value, zone, headerMessageId);
+    }
+
+    ChatProfile withZone(ZoneId value) {
+        return new ChatProfile(deleteMessages, value, headerMessageId);
+    }
+
+    ChatProfile withHeaderMessageId(int value) {
+        return new ChatProfile(deleteMessages, zone, value);
+    }
+}
@@ -0,0 +1,243 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/*
+ * Authoritative per-chat settings. Changes are appended to profiles.log as "chatId;key;value" and
+ * folded into the profiles.dat snapshot ("chatId;delete;zone;header") once the log grows long enough.
+ */
+class ChatProfiles {
+    private static final String SNAPSHOT_FILE = "profiles.dat";
+    private static final String LOG_FILE = "profiles.log";
+    private static final String LEGACY_PREF_FILE = "preferences.dat";
+    private static final String LEGACY_TZ_FILE = "timezones.dat";
+    private static final String DELIMITER = ";";
+    private static final String KEY_DELETE = "delete";
+    private static final String KEY_ZONE = "zone";
+    private static final String KEY_HEADER = "header";
+    private static final int SNAPSHOT_THRESHOLD = Integer.getInteger("babyfeedbot.profiles.snapshotThreshold", 1000);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private LongHashMap<ChatProfile> profiles = new LongHashMap<>();
+    private int logEntries;
+
+    void load() throws IOException {
+        lock.writeLock().lock();
+        try {
+            LongHashMap<ChatProfile> loaded = new LongHashMap<>();
+            Files.createDirectories(DataLayout.root());
+            moveFromWorkingDir(SNAPSHOT_FILE);
+            moveFromWorkingDir(LOG_FILE);
+            Path snapshot = DataLayout.root().resolve(SNAPSHOT_FILE);
+            Path log = DataLayout.root().resolve(LOG_FILE);
+            boolean needsSnapshot = false;
+            if (Files.exists(snapshot) || Files.exists(log)) {
+                readSnapshot(snapshot, loaded);
+                int replayed = replayLog(log, loaded);
+                // Fold a damaged log into the snapshot right away so new entries are never appended after a torn line
+                needsSnapshot = replayed < 0;
+                logEntries = Math.max(replayed, 0);
+            } else {
+                readLegacyPreferences(loaded);
+                needsSnapshot = loaded.size() > 0;
+            }
+            profiles = loaded;
+            if (needsSnapshot) {
+                writeSnapshot();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    ChatProfile get(long chatId) {
+        lock.readLock().lock();
+        try {
+            ChatProfile profile = profiles.get(chatId);
+            return profile == null ? ChatProfile.EMPTY : profile;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void saveDeleteMessages(long chatId, boolean value) throws IOException {
+        update(chatId, p -> p.withDeleteMessages(value), KEY_DELETE, String.valueOf(value));
+    }
+
+    void saveZone(long chatId, ZoneId zone) throws IOException {
+        update(chatId, p -> p.withZone(zone), KEY_ZONE, zone.getId());
+    }
+
+    // Profiles written before the data root existed sit in the working directory
+    private static void moveFromWorkingDir(String fileName) throws IOException {
+        Path source = Paths.get(fileName);
+        Path target = DataLayout.root().resolve(fileName);
+        if (Files.exists(source) && !Files.exists(target)) {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    void saveHeaderMessageId(long chatId, int messageId) throws IOException {
+        update(chatId, p -> p.withHeaderMessageId(messageId), KEY_HEADER, String.valueOf(messageId));
+    }
+
+    private void update(long chatId, UnaryOperator<ChatProfile> change, String key, String value) throws IOException {
+        lock.writeLock().lock();
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(DataLayout.root().resolve(LOG_FILE), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write(chatId + DELIMITER + key + DELIMITER + value);
+                writer.newLine();
+            }
+            ChatProfile current = profiles.get(chatId);
+            profiles.put(chatId, change.apply(current == null ? ChatProfile.EMPTY : current));
+            if (++logEntries >= SNAPSHOT_THRESHOLD) {
+                writeSnapshot();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path tmpPath = DataLayout.root().resolve(SNAPSHOT_FILE + ".tmp");
+        IOException[] failure = new IOException[1];
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+            profiles.forEach((chatId, profile) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    writer.write(chatId + DELIMITER
+                            + (profile.getDeleteMessages() == null ? "" : profile.getDeleteMessages()) + DELIMITER
+                            + (profile.getZone() == null ? "" : profile.getZone().getId()) + DELIMITER
+                            + (profile.getHeaderMessageId() == null ? "" : profile.getHeaderMessageId()));
+                    writer.newLine();
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        // The snapshot already contains every logged change, so a crash before the log is removed only replays them again
+        Files.move(tmpPath, DataLayout.root().resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(DataLayout.root().resolve(LOG_FILE));
+        logEntries = 0;
+    }
+
+    private static void readSnapshot(Path path, LongHashMap<ChatProfile> target) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(DELIMITER, -1);
+                if (parts.length != 4) {
+                    System.err.println("Invalid profile line: " + line);
+                    continue;
+                }
+                try {
+                    long chatId = Long.parseLong(parts[0]);
+                    Boolean delete = parts[1].isEmpty() ? null : Boolean.parseBoolean(parts[1]);
+                    ZoneId zone = parts[2].isEmpty() ? null : ZoneId.of(parts[2]);
+                    Integer header = parts[3].isEmpty() ? null : Integer.parseInt(parts[3]);
+                    target.put(chatId, new ChatProfile(delete, zone, header));
+                } catch (NumberFormatException | DateTimeException e) {
+                    System.err.println("Invalid profile line: " + line);
+                }
+            }
+        }
+    }
+
+    // Returns the number of entries replayed, or -1 if any line was damaged
+    private static int replayLog(Path path, LongHashMap<ChatProfile> target) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int entries = 0;
+        int invalid = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(DELIMITER, -1);
+                try {
+                    if (parts.length != 3) {
+                        throw new IllegalArgumentException(line);
+                    }
+                    long chatId = Long.parseLong(parts[0]);
+                    ChatProfile current = target.get(chatId);
+                    if (current == null) {
+                        current = ChatProfile.EMPTY;
+                    }
+                    ChatProfile updated = switch (parts[1]) {
+                        case KEY_DELETE -> current.withDeleteMessages(Boolean.parseBoolean(parts[2]));
+                        case KEY_ZONE -> current.withZone(ZoneId.of(parts[2]));
+                        case KEY_HEADER -> current.withHeaderMessageId(Integer.parseInt(parts[2]));
+                        default -> throw new IllegalArgumentException(line);
+                    };
+                    target.put(chatId, updated);
+                    entries++;
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    System.err.println("Invalid profile log line: " + line);
+                    invalid++;
+                }
+            }
+        }
+        return invalid > 0 ? -1 : entries;
+    }
+
+    private static void readLegacyPreferences(LongHashMap<ChatProfile> target) throws IOException {
+        for (String[] parts : readLegacyFile(LEGACY_PREF_FILE)) {
+            try {
+                long chatId = Long.parseLong(parts[0].trim());
+                ChatProfile current = target.get(chatId);
+                target.put(chatId, (current == null ? ChatProfile.EMPTY : current).withDeleteMessages(Boolean.parseBoolean(parts[1].trim())));
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid preference line: " + String.join(":", parts));
+            }
+        }
+        for (String[] parts : readLegacyFile(LEGACY_TZ_FILE)) {
+            try {
+                long chatId = Long.parseLong(parts[0].trim());
+                ChatProfile current = target.get(chatId);
+                target.put(chatId, (current == null ? ChatProfile.EMPTY : current).withZone(ZoneId.of(parts[1].trim())));
+            } catch (NumberFormatException | DateTimeException e) {
+                System.err.println("Invalid timezone line: " + String.join(":", parts));
+            }
+        }
+    }
+
+    private static List<String[]> readLegacyFile(String fileName) throws IOException {
+        List<String[]> lines = new ArrayList<>();
+        Path path = Paths.get(fileName);
+        if (!Files.exists(path)) {
+            return lines;
+        }
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(":");
+                if (parts.length == 2) {
+                    lines.add(parts);
+                }
+            }
+        }
+        return lines;
+    }
+}
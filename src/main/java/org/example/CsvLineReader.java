@@ -0,0 +1,190 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Streams ";"-separated lines from a file through one reusable byte buffer. Fields are exposed as
+ * byte ranges of the current line and decoded in place, so reading a row allocates nothing.
+ * Only ASCII content is meaningful; the record files never contain anything else.
+ */
+class CsvLineReader implements Closeable {
+    static final long INVALID = Long.MIN_VALUE;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FIELDS = 16;
+    private static final byte DELIMITER = ';';
+    private final FileChannel channel;
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private int limit;
+    private int next; // start of the line after the current one
+    private int lineStart;
+    private int lineEnd;
+    private long bufferOffset; // file offset of bytes[0]
+    private long lineNumber;
+    private boolean eof;
+    private int fieldCount;
+    private final int[] fieldStarts = new int[MAX_FIELDS];
+    private final int[] fieldEnds = new int[MAX_FIELDS];
+    private final Field view = new Field();
+
+    CsvLineReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    // Advances to the next line; returns false at end of file
+    boolean nextLine() throws IOException {
+        int scanned = next;
+        while (true) {
+            int newline = indexOfNewline(scanned);
+            if (newline >= 0) {
+                split(next, newline);
+                next = newline + 1;
+                return true;
+            }
+            if (eof) {
+                if (next >= limit) {
+                    return false;
+                }
+                split(next, limit);
+                next = limit;
+                return true;
+            }
+            scanned = limit - next;
+            fill();
+        }
+    }
+
+    long lineNumber() {
+        return lineNumber;
+    }
+
+    // File offset of the first byte of the current line
+    long lineOffset() {
+        return bufferOffset + lineStart;
+    }
+
+    boolean isBlank() {
+        return lineEnd == lineStart;
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    // The returned view is reused by the next call
+    CharSequence field(int index) {
+        view.from = fieldStarts[index];
+        view.to = fieldEnds[index];
+        return view;
+    }
+
+    // Decimal value of the field, or INVALID if it is empty, not a number or out of range
+    long longField(int index) {
+        int pos = fieldStarts[index];
+        int end = fieldEnds[index];
+        boolean negative = pos < end && bytes[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end || end - pos > 18) {
+            return INVALID;
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int d = bytes[pos] - '0';
+            if (d < 0 || d > 9) {
+                return INVALID;
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    long intField(int index) {
+        long value = longField(index);
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? INVALID : value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void split(int start, int end) {
+        lineStart = start;
+        lineEnd = end;
+        lineNumber++;
+        int contentEnd = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+        fieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i <= contentEnd; i++) {
+            if (i == contentEnd || bytes[i] == DELIMITER) {
+                if (fieldCount < MAX_FIELDS) {
+                    fieldStarts[fieldCount] = fieldStart;
+                    fieldEnds[fieldCount] = i;
+                }
+                fieldCount++;
+                fieldStart = i + 1;
+            }
+        }
+    }
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < limit; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Moves the unfinished line to the front of the buffer, growing it for very long lines, and reads more
+    private void fill() throws IOException {
+        int pending = limit - next;
+        if (pending == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        } else {
+            System.arraycopy(bytes, next, bytes, 0, pending);
+        }
+        bufferOffset += next;
+        next = 0;
+        limit = pending;
+        int read = channel.read(ByteBuffer.wrap(bytes, limit, bytes.length - limit));
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private class Field implements CharSequence {
+        private int from;
+        private int to;
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[from + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
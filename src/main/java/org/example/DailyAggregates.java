@@ -0,0 +1,147 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class DailyAggregates {
+    private static final int INITIAL_CAPACITY = 8;
+    private int size;
+    private int[] days = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int[] totals = new int[INITIAL_CAPACITY];
+    private short[] mins = new short[INITIAL_CAPACITY];
+    private short[] maxs = new short[INITIAL_CAPACITY];
+    private int[] milks = new int[INITIAL_CAPACITY];
+    // Prefix sums over the day arrays, rebuilt lazily after a write; prefix[i] covers days[0..i)
+    private long[] prefixCounts;
+    private long[] prefixTotals;
+    private long[] prefixMilks;
+
+    void set(int day, int count, int total, int min, int max, int milk) {
+        int pos = search(day);
+        boolean present = pos < size && days[pos] == day;
+        if (count == 0) {
+            if (present) {
+                int tail = size - pos - 1;
+                System.arraycopy(days, pos + 1, days, pos, tail);
+                System.arraycopy(counts, pos + 1, counts, pos, tail);
+                System.arraycopy(totals, pos + 1, totals, pos, tail);
+                System.arraycopy(mins, pos + 1, mins, pos, tail);
+                System.arraycopy(maxs, pos + 1, maxs, pos, tail);
+                System.arraycopy(milks, pos + 1, milks, pos, tail);
+                size--;
+                prefixCounts = null;
+            }
+            return;
+        }
+        if (!present) {
+            if (size == days.length) {
+                grow();
+            }
+            int tail = size - pos;
+            System.arraycopy(days, pos, days, pos + 1, tail);
+            System.arraycopy(counts, pos, counts, pos + 1, tail);
+            System.arraycopy(totals, pos, totals, pos + 1, tail);
+            System.arraycopy(mins, pos, mins, pos + 1, tail);
+            System.arraycopy(maxs, pos, maxs, pos + 1, tail);
+            System.arraycopy(milks, pos, milks, pos + 1, tail);
+            days[pos] = day;
+            size++;
+        }
+        counts[pos] = count;
+        totals[pos] = total;
+        mins[pos] = (short) min;
+        maxs[pos] = (short) max;
+        milks[pos] = milk;
+        prefixCounts = null;
+    }
+
+    // Trimmed copy with prefix sums already built, so it can be shared with readers and never written again
+    DailyAggregates freeze() {
+        DailyAggregates copy = new DailyAggregates();
+        copy.size = size;
+        copy.days = Arrays.copyOf(days, size);
+        copy.counts = Arrays.copyOf(counts, size);
+        copy.totals = Arrays.copyOf(totals, size);
+        copy.mins = Arrays.copyOf(mins, size);
+        copy.maxs = Arrays.copyOf(maxs, size);
+        copy.milks = Arrays.copyOf(milks, size);
+        copy.rebuildPrefixSums();
+        return copy;
+    }
+
+    DailyStats get(int day) {
+        int pos = search(day);
+        return pos < size && days[pos] == day ? statsAt(pos) : null;
+    }
+
+    List<DailyStats> range(int startDay, int endDay) {
+        int from = search(startDay);
+        int to = search(endDay + 1);
+        List<DailyStats> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            result.add(statsAt(i));
+        }
+        return result;
+    }
+
+    DailyStats total(int startDay, int endDay) {
+        if (prefixCounts == null) {
+            rebuildPrefixSums();
+        }
+        int from = search(startDay);
+        int to = search(endDay + 1);
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, mins[i]);
+            max = Math.max(max, maxs[i]);
+        }
+        int count = (int) (prefixCounts[to] - prefixCounts[from]);
+        return new DailyStats(startDay, count, prefixTotals[to] - prefixTotals[from],
+                count == 0 ? 0 : min, max, (int) (prefixMilks[to] - prefixMilks[from]));
+    }
+
+    private DailyStats statsAt(int pos) {
+        return new DailyStats(days[pos], counts[pos], totals[pos], mins[pos], maxs[pos], milks[pos]);
+    }
+
+    private void rebuildPrefixSums() {
+        long[] c = new long[size + 1];
+        long[] t = new long[size + 1];
+        long[] m = new long[size + 1];
+        for (int i = 0; i < size; i++) {
+            c[i + 1] = c[i] + counts[i];
+            t[i + 1] = t[i] + totals[i];
+            m[i + 1] = m[i] + milks[i];
+        }
+        prefixTotals = t;
+        prefixMilks = m;
+        prefixCounts = c;
+    }
+
+    private int search(int day) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (days[mid] < day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void grow() {
+        int capacity = days.length * 2;
+        days = Arrays.copyOf(days, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        totals = Arrays.copyOf(totals, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        milks = Arrays.copyOf(milks, capacity);
+    }
+}
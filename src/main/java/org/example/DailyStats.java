@@ -0,0 +1,53 @@
+package org.example;
+
+import java.time.LocalDate;
+
+public class DailyStats {
+    private final int epochDay;
+    private final int count;
+    private final long totalMl;
+    private final int minMl;
+    private final int maxMl;
+    private final int milkCount;
+
+    public DailyStats(int epochDay, int count, long totalMl, int minMl, int maxMl, int milkCount) {
+        this.epochDay = epochDay;
+        this.count = count;
+        this.totalMl = totalMl;
+        this.minMl = minMl;
+        this.maxMl = maxMl;
+        this.milkCount = milkCount;
+    }
+
+    public int getEpochDay() {
+        return epochDay;
+    }
+
+    public LocalDate getDate() {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getTotalMl() {
+        return totalMl;
+    }
+
+    public int getMinMl() {
+        return minMl;
+    }
+
+    public int getMaxMl() {
+        return maxMl;
+    }
+
+    public int getMilkCount() {
+        return milkCount;
+    }
+
+    public double getAverageMl() {
+        return count == 0 ? 0 : (double) totalMl / count;
+    }
+}
@@ -0,0 +1,78 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * User files live under a configurable data root in two levels of hashed subdirectories,
+ * e.g. data/3f/a2/babyfeedbot_12345.bin, so no single directory grows with the user count.
+ */
+public class DataLayout {
+    public static final String USER_FILE_PREFIX = "babyfeedbot_";
+    private static final Path ROOT = Paths.get(System.getProperty("babyfeedbot.dataDir", "data"));
+    private static final Path LEGACY_ROOT = Paths.get(".");
+
+    public static Path root() {
+        return ROOT;
+    }
+
+    public static Path userDir(long userId) {
+        return userDir(ROOT, userId);
+    }
+
+    public static Path userFile(long userId, String extension) {
+        return userFile(ROOT, userId, extension);
+    }
+
+    // Same layout under another data root, e.g. the target of a restore
+    public static Path userDir(Path root, long userId) {
+        long h = userId * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return root.resolve(String.format("%02x", (h >>> 8) & 0xFF)).resolve(String.format("%02x", h & 0xFF));
+    }
+
+    public static Path userFile(Path root, long userId, String extension) {
+        return userDir(root, userId).resolve(USER_FILE_PREFIX + userId + extension);
+    }
+
+    public static Path legacyUserFile(long userId, String extension) {
+        return LEGACY_ROOT.resolve(USER_FILE_PREFIX + userId + extension);
+    }
+
+    // The user id encoded in a user file name, or empty for any other file (including *.tmp). Group chats have
+    // negative ids, so every long is a valid id.
+    public static OptionalLong parseUserId(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        if (!name.startsWith(USER_FILE_PREFIX) || dot < 0 || name.endsWith(".tmp")) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(Long.parseLong(name.substring(USER_FILE_PREFIX.length(), dot)));
+        } catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    public static List<Path> listUserFiles() throws IOException {
+        if (!Files.isDirectory(ROOT)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(ROOT, 3)) {
+            return files.filter(path -> path.getNameCount() - ROOT.getNameCount() == 3 && parseUserId(path).isPresent())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public static List<Path> listLegacyUserFiles() throws IOException {
+        try (Stream<Path> files = Files.list(LEGACY_ROOT)) {
+            return files.filter(path -> parseUserId(path).isPresent()).collect(Collectors.toList());
+        }
+    }
+}
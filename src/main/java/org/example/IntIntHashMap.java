@@ -0,0 +1,102 @@
+package org.example;
+
+import java.util.Arrays;
+
+// Open-addressing int-to-int map with linear probing; values must be non-negative
+class IntIntHashMap {
+    private static final int FREE = -1;
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    IntIntHashMap() {
+        this(16);
+    }
+
+    IntIntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, FREE);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns the value for the key, or -1 if absent
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); values[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return FREE;
+    }
+
+    void put(int key, int value) {
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (values[i] != FREE) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    boolean remove(int key) {
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (values[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == FREE) {
+            return false;
+        }
+        // Shift later entries of the probe run back so lookups never stop at the hole
+        int hole = i;
+        for (int j = (hole + 1) & mask; values[j] != FREE; j = (j + 1) & mask) {
+            int home = index(keys[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = FREE;
+        size--;
+        return true;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, FREE);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != FREE) {
+                int i = index(oldKeys[j], mask);
+                while (values[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int index(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
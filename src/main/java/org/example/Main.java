@@ -8,11 +8,20 @@ import java.io.IOException;
 
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            // verify / restore subcommands work on the archives and exit without starting the bot
+            System.exit(RestoreTool.run(args));
+        }
         try {
             BackupService.createArchiveDir();
-            BackupService.scheduleDailyArchive();
+            BabyBot bot = new BabyBot();
+            BackupService.scheduleDailyArchive(bot.getStorage());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                BackupService.cancel();
+                bot.shutdown();
+            }, "storage-shutdown"));
             TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new BabyBot());
+            botsApi.registerBot(bot);
             System.out.println("Бот запущен");
         } catch (TelegramApiException | IOException e) {
             e.printStackTrace();
@@ -0,0 +1,410 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/*
+ * Per-user binary record log: a fixed header followed by fixed-width little-endian frames.
+ *
+ * Header (32 bytes): magic "BFB1", version (short), frame size (short), userId (long), next id (int),
+ * verified offset (long), reserved.
+ * Frame (32 bytes): op (byte), regurg (byte), amountMl (short), id (int), epoch minute (int), createdAt minute (int),
+ * sequence (long), reserved (int), CRC32C of the preceding 28 bytes (int).
+ *
+ * A put frame replaces any earlier frame with the same id and a delete frame removes it, so the live
+ * set is whatever is left after reading the file front to back. Compaction rewrites it as puts only and
+ * records the id counter in the header, since the frames of deleted records no longer carry it.
+ *
+ * Everything before the verified offset has been fsynced and checked, so loading and recovery only checksum
+ * the frames after it and cut the file at the first frame that fails. An edit to a loaded record may rewrite
+ * its latest put frame in place instead of appending, but only behind a copy: the edited frame is first synced to
+ * the tail, with the verified offset moved back to the frame if it was past it, so a torn overwrite is skipped on
+ * recovery and the copy still holds the edit. Version 1 files (16-byte frames without checksums)
+ * are still read and are rewritten in the current format on first load.
+ */
+class RecordFile {
+    static final String EXTENSION = ".bin";
+    static final int MAGIC = 0x31424642;
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int FRAME_SIZE = 32;
+    static final byte OP_PUT = 1;
+    static final byte OP_DELETE = 2;
+    private static final short VERSION_1 = 1;
+    private static final int VERSION_1_FRAME_SIZE = 16;
+    private static final int VERIFIED_OFFSET_POSITION = 20;
+    private static final int CHECKSUM_POSITION = 28;
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private RecordFile() {
+    }
+
+    // Process-wide increasing sequence; seeded from the clock and from the last frame of every file loaded or recovered,
+    // so it keeps increasing across restarts even if the clock went back
+    static long nextSequence() {
+        return SEQUENCE.updateAndGet(previous -> Math.max(previous + 1, System.currentTimeMillis() * 1000));
+    }
+
+    // Frames appended from now on must sort after everything already in the file
+    private static void observeSequence(long sequence) {
+        SEQUENCE.accumulateAndGet(sequence, Math::max);
+    }
+
+    // Returns the number of frames read, or -1 if the file is not a record file for this user
+    static int read(Path path, UserRecords records) throws IOException {
+        boolean legacy;
+        int frames;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                return -1;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getLong(8) != records.getUserId()) {
+                return -1;
+            }
+            records.reserveIds(buffer.getInt(16));
+            short version = buffer.getShort(4);
+            legacy = version == VERSION_1 && buffer.getShort(6) == VERSION_1_FRAME_SIZE;
+            if (legacy) {
+                frames = readVersion1(channel, buffer, records);
+            } else if (version == VERSION && buffer.getShort(6) == FRAME_SIZE) {
+                // The verified part was checked before the header vouched for it, so it is applied as is
+                long verified = verifiedOffset(buffer.getLong(VERIFIED_OFFSET_POSITION), length);
+                for (int frame = HEADER_SIZE; frame < verified; frame += FRAME_SIZE) {
+                    apply(buffer, frame, records);
+                }
+                long end = verify(channel, buffer, verified, records);
+                frames = (int) ((end - HEADER_SIZE) / FRAME_SIZE);
+            } else {
+                return -1;
+            }
+        }
+        if (legacy) {
+            write(path, records, true);
+            frames = records.size();
+        }
+        return frames;
+    }
+
+    // Checks the unverified tail of a file without loading it; returns false if the file is not a current record file
+    static boolean recover(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION || header.getShort(6) != FRAME_SIZE) {
+                return false;
+            }
+            long verified = verifiedOffset(header.getLong(VERIFIED_OFFSET_POSITION), length);
+            if (verified == length) {
+                if (length > HEADER_SIZE) {
+                    ByteBuffer last = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(channel, last, length - FRAME_SIZE + 16);
+                    observeSequence(last.getLong(0));
+                }
+                return true;
+            }
+            MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            tail.order(ByteOrder.LITTLE_ENDIAN);
+            verify(channel, tail, verified, null);
+            return true;
+        }
+    }
+
+    // Checksums frames from the given offset, applying them to the records if any. A damaged frame followed by an
+    // intact one can only be a torn in-place patch and is skipped; otherwise it is a torn append and the file is cut
+    // there. Afterwards the verified offset is moved to the end of the valid frames, which is returned.
+    private static long verify(FileChannel channel, ByteBuffer buffer, long from, UserRecords records) throws IOException {
+        long length = buffer.limit();
+        long pos = from;
+        long sequence = pos > HEADER_SIZE ? buffer.getLong((int) pos - FRAME_SIZE + 16) : Long.MIN_VALUE;
+        CRC32C crc = new CRC32C();
+        while (pos + FRAME_SIZE <= length) {
+            int frame = (int) pos;
+            if (intact(crc, buffer, frame, sequence)) {
+                sequence = buffer.getLong(frame + 16);
+                if (records != null) {
+                    apply(buffer, frame, records);
+                }
+            } else if (pos + 2 * FRAME_SIZE <= length && intact(crc, buffer, frame + FRAME_SIZE, sequence)) {
+                System.err.println("Skipping damaged record frame at offset " + pos + " for user " + buffer.getLong(8));
+            } else {
+                System.err.println("Dropping damaged record frames from offset " + pos + " for user " + buffer.getLong(8));
+                break;
+            }
+            pos += FRAME_SIZE;
+        }
+        observeSequence(sequence);
+        if (pos != length) {
+            // Drop a frame torn by a crash mid-append, and anything after it, so appends start on a frame boundary
+            channel.truncate(pos);
+        }
+        if (pos != buffer.getLong(VERIFIED_OFFSET_POSITION)) {
+            // The checked frames must be on disk before the header vouches for them
+            channel.force(false);
+            writeVerifiedOffset(channel, pos);
+        }
+        return pos;
+    }
+
+    private static boolean intact(CRC32C crc, ByteBuffer buffer, int frame, long previousSequence) {
+        return checksum(crc, buffer, frame) == buffer.getInt(frame + CHECKSUM_POSITION) && buffer.getLong(frame + 16) >= previousSequence;
+    }
+
+    private static long verifiedOffset(long stored, long length) {
+        if (stored < HEADER_SIZE || stored > length) {
+            return HEADER_SIZE;
+        }
+        return HEADER_SIZE + (stored - HEADER_SIZE) / FRAME_SIZE * FRAME_SIZE;
+    }
+
+    private static void apply(ByteBuffer buffer, int pos, UserRecords records) {
+        int id = buffer.getInt(pos + 4);
+        if (buffer.get(pos) == OP_DELETE) {
+            records.remove(id);
+        } else {
+            int slot = records.put(id, buffer.getInt(pos + 8), buffer.getShort(pos + 2), buffer.get(pos + 1), buffer.getInt(pos + 12));
+            records.setFrame(slot, (pos - HEADER_SIZE) / FRAME_SIZE);
+        }
+    }
+
+    private static int readVersion1(FileChannel channel, ByteBuffer buffer, UserRecords records) throws IOException {
+        long length = buffer.limit();
+        int frames = (int) ((length - HEADER_SIZE) / VERSION_1_FRAME_SIZE);
+        for (int i = 0; i < frames; i++) {
+            // The first 16 bytes of a frame have not changed since version 1; frame positions are reset by the rewrite
+            apply(buffer, HEADER_SIZE + i * VERSION_1_FRAME_SIZE, records);
+        }
+        long end = HEADER_SIZE + (long) frames * VERSION_1_FRAME_SIZE;
+        if (end != length) {
+            channel.truncate(end);
+        }
+        return frames;
+    }
+
+    static void write(Path path, UserRecords records, boolean force) throws IOException {
+        long sequence = nextSequence();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + records.size() * FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        // Without an fsync the frames are not yet durable, so recovery has to check all of them
+        putHeader(buffer, records.getUserId(), records.nextId(), force ? buffer.capacity() : HEADER_SIZE);
+        for (int i = 0; i < records.size(); i++) {
+            int slot = records.slotAt(i);
+            putFrame(buffer, OP_PUT, records.get(slot), sequence);
+            records.setFrame(slot, i);
+        }
+        buffer.flip();
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // A compacted file for one user's state at a backup cut; every frame carries the cut's sequence number
+    static ByteBuffer encode(UserSnapshot snapshot, int nextId, long sequence) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + snapshot.size() * FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, snapshot.getUserId(), nextId, buffer.capacity());
+        for (int i = 0; i < snapshot.size(); i++) {
+            putFrame(buffer, OP_PUT, snapshot.get(i), sequence);
+        }
+        return buffer.flip();
+    }
+
+    // True if the bytes are an intact record file for the user written by encode for the given cut
+    static boolean isCut(ByteBuffer content, long userId, long sequence) {
+        return checkFrames(content, userId, sequence);
+    }
+
+    // True if the bytes are a record file for the user whose frames are all intact; version 1 files have no checksums
+    static boolean isIntact(ByteBuffer content, long userId) {
+        ByteBuffer buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() >= HEADER_SIZE && buffer.getShort(4) == VERSION_1) {
+            return buffer.getInt(0) == MAGIC && buffer.getLong(8) == userId && (buffer.limit() - HEADER_SIZE) % VERSION_1_FRAME_SIZE == 0;
+        }
+        return checkFrames(content, userId, Long.MIN_VALUE);
+    }
+
+    // Long.MIN_VALUE accepts frames of any sequence
+    private static boolean checkFrames(ByteBuffer content, long userId, long sequence) {
+        ByteBuffer buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int length = buffer.limit();
+        if (length < HEADER_SIZE || (length - HEADER_SIZE) % FRAME_SIZE != 0 || buffer.getInt(0) != MAGIC
+                || buffer.getShort(4) != VERSION || buffer.getLong(8) != userId) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        for (int frame = HEADER_SIZE; frame < length; frame += FRAME_SIZE) {
+            if ((sequence != Long.MIN_VALUE && buffer.getLong(frame + 16) != sequence)
+                    || checksum(crc, buffer, frame) != buffer.getInt(frame + CHECKSUM_POSITION)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static ByteBuffer putFrame(Record record) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putFrame(frame, OP_PUT, record, nextSequence());
+        return frame.flip();
+    }
+
+    static ByteBuffer deleteFrame(int id) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        frame.put(OP_DELETE).put((byte) 0).putShort((short) 0).putInt(id).putInt(0).putInt(0).putLong(nextSequence()).putInt(0);
+        frame.putInt(checksum(new CRC32C(), frame, 0));
+        return frame.flip();
+    }
+
+    static void append(Path path, long userId, ByteBuffer frames, boolean force) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            if (position == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                putHeader(header, userId, 0, HEADER_SIZE);
+                header.flip();
+                position += channel.write(header, 0);
+            }
+            while (frames.hasRemaining()) {
+                position += channel.write(frames, position);
+            }
+            if (force) {
+                channel.force(false);
+                writeVerifiedOffset(channel, position);
+            }
+        }
+    }
+
+    // Rewrites a record's latest put frame where it lies instead of appending a new one. The frame keeps its sequence
+    // number, so replay order is unchanged. Frames are only rewritten with force, as the copy that guards the overwrite
+    // has to reach the disk first. Returns false if the frame cannot be patched and the caller has to append instead.
+    static boolean patch(Path path, int frame, Record record, boolean force) throws IOException {
+        if (!force) {
+            return false;
+        }
+        long offset = HEADER_SIZE + (long) frame * FRAME_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (frame < 0 || offset + FRAME_SIZE > length) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(FRAME_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, buffer, offset);
+            if (!patchFrame(buffer, 0, record)) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, VERIFIED_OFFSET_POSITION);
+            long verified = header.getLong(0);
+            // Double write: a copy with a new sequence goes to the tail and recovery is made to check the frame, so a
+            // crash mid-overwrite leaves a damaged frame that recovery skips and a copy that replays the edit. A frame
+            // past the verified offset needs the copy as much: it may hold a record that was synced long ago.
+            ByteBuffer copy = putFrame(record);
+            writeFully(channel, copy, length);
+            if (verified > offset) {
+                writeVerifiedOffset(channel, offset);
+            }
+            channel.force(false);
+            writeFully(channel, buffer, offset);
+            channel.force(false);
+            channel.truncate(length);
+            if (verified > offset) {
+                writeVerifiedOffset(channel, verified);
+            }
+            return true;
+        }
+    }
+
+    // Rewrites the put frame at the position with the record's fields, keeping its sequence number. Returns false
+    // if that frame is not an intact put frame for the record.
+    static boolean patchFrame(ByteBuffer frames, int position, Record record) {
+        ByteBuffer buffer = frames.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.get(position) != OP_PUT || buffer.getInt(position + 4) != record.getId()
+                || checksum(new CRC32C(), buffer, position) != buffer.getInt(position + CHECKSUM_POSITION)) {
+            return false;
+        }
+        long sequence = buffer.getLong(position + 16);
+        putFrame(buffer.position(position), OP_PUT, record, sequence);
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of record file");
+            }
+        }
+    }
+
+    // Flushes the file; the caller moves the verified offset once nothing it vouches for can have changed since
+    static void force(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+    }
+
+    static void setVerifiedOffset(Path path, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            writeVerifiedOffset(channel, offset);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void writeVerifiedOffset(FileChannel channel, long offset) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(offset).flip();
+        while (value.hasRemaining()) {
+            channel.write(value, VERIFIED_OFFSET_POSITION + value.position());
+        }
+    }
+
+    private static void putHeader(ByteBuffer buffer, long userId, int nextId, long verifiedOffset) {
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) FRAME_SIZE).putLong(userId).putInt(nextId).putLong(verifiedOffset);
+        buffer.position(buffer.position() + HEADER_SIZE - 28);
+    }
+
+    private static void putFrame(ByteBuffer buffer, byte op, Record record, long sequence) {
+        int start = buffer.position();
+        buffer.put(op)
+                .put(record.getRegurgValue().toByte())
+                .putShort((short) record.getAmountMl())
+                .putInt(record.getId())
+                .putInt(record.getEpochMinute())
+                .putInt(record.getCreatedAtMinute())
+                .putLong(sequence)
+                .putInt(0);
+        buffer.putInt(checksum(new CRC32C(), buffer, start));
+    }
+
+    private static int checksum(CRC32C crc, ByteBuffer buffer, int frame) {
+        crc.reset();
+        crc.update(buffer.duplicate().limit(frame + CHECKSUM_POSITION).position(frame));
+        return (int) crc.getValue();
+    }
+}
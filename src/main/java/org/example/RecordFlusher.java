@@ -0,0 +1,325 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+
+/*
+ * Writes record frames either straight through to the user's file or, in write-behind mode, into a
+ * per-user buffer that a background thread appends every flush interval or once enough operations
+ * have queued up. Edits to frames already in the file are queued the same way and applied after the
+ * appends. All methods that touch a user's buffer must be called with that user's lock held.
+ */
+class RecordFlusher {
+    enum FsyncPolicy {
+        BATCH,
+        INTERVAL,
+        NEVER
+    }
+
+    private static final long LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxOps;
+    private final LongFunction<ReentrantLock> locks;
+    private final LongFunction<Path> files;
+    private final LongConsumer rewrite;
+    private final Map<Long, PendingFrames> pending = new ConcurrentHashMap<>();
+    private final Set<Long> unsynced = ConcurrentHashMap.newKeySet();
+    // Users being fsynced, and those of them whose file was changed other than by appending since the fsync began
+    private final Set<Long> syncing = ConcurrentHashMap.newKeySet();
+    private final Set<Long> overwritten = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pendingOps = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean writeBehind;
+    private final AtomicLong writeLatencyMicros = new AtomicLong();
+    private volatile long lastWriteNanos;
+
+    private static final class PendingFrames {
+        byte[] bytes = new byte[RecordFile.FRAME_SIZE * 4];
+        int length;
+        int ops;
+        // Frame index in the file -> latest content for it
+        final Map<Integer, Record> patches = new HashMap<>();
+
+        void add(ByteBuffer frame) {
+            int size = frame.remaining();
+            if (length + size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + size));
+            }
+            frame.get(bytes, length, size);
+            length += size;
+            ops++;
+        }
+    }
+
+    RecordFlusher(boolean writeBehind, FsyncPolicy fsyncPolicy, long flushIntervalMs, int maxOps, long fsyncIntervalMs,
+                  LongFunction<ReentrantLock> locks, LongFunction<Path> files, LongConsumer rewrite) {
+        this.writeBehind = writeBehind;
+        this.fsyncPolicy = fsyncPolicy;
+        this.maxOps = maxOps;
+        this.locks = locks;
+        this.files = files;
+        this.rewrite = rewrite;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "record-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        if (writeBehind) {
+            scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            scheduler.scheduleWithFixedDelay(this::syncQuietly, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    boolean forceOnWrite() {
+        return fsyncPolicy != FsyncPolicy.NEVER;
+    }
+
+    void write(long userId, ByteBuffer frame) throws IOException {
+        if (!writeBehind) {
+            long started = System.nanoTime();
+            RecordFile.append(files.apply(userId), userId, frame, fsyncPolicy == FsyncPolicy.BATCH);
+            recordLatency(started);
+            if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                unsynced.add(userId);
+            }
+            return;
+        }
+        pending.computeIfAbsent(userId, k -> new PendingFrames()).add(frame);
+        queued();
+    }
+
+    // Rewrites the user's frame with the given index, frameCount being the number of frames written so far; returns
+    // false if the caller has to append instead. In write-behind mode a frame still in the buffer is rewritten there
+    // and one already in the file is queued, to be patched by the next flush.
+    boolean patch(long userId, int frame, int frameCount, Record record) throws IOException {
+        if (frame < 0) {
+            return false;
+        }
+        if (!writeBehind) {
+            long started = System.nanoTime();
+            if (pending.containsKey(userId)
+                    || !RecordFile.patch(files.apply(userId), frame, record, fsyncPolicy == FsyncPolicy.BATCH)) {
+                return false;
+            }
+            recordLatency(started);
+            markOverwritten(userId);
+            if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                unsynced.add(userId);
+            }
+            return true;
+        }
+        PendingFrames frames = pending.computeIfAbsent(userId, k -> new PendingFrames());
+        int firstBuffered = frameCount - frames.ops;
+        if (frame >= firstBuffered) {
+            return RecordFile.patchFrame(ByteBuffer.wrap(frames.bytes, 0, frames.length), (frame - firstBuffered) * RecordFile.FRAME_SIZE, record);
+        }
+        if (frames.patches.put(frame, record) == null) {
+            queued();
+        }
+        return true;
+    }
+
+    private void queued() {
+        if (pendingOps.incrementAndGet() >= maxOps && flushQueued.compareAndSet(false, true)) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    Set<Long> pendingUsers() {
+        return new HashSet<>(pending.keySet());
+    }
+
+    boolean hasPending(long userId) {
+        return pending.containsKey(userId);
+    }
+
+    // Drops queued frames and patches once the caller has rewritten the user's whole file from memory
+    void discard(long userId) {
+        PendingFrames frames = pending.remove(userId);
+        if (frames != null) {
+            pendingOps.addAndGet(-frames.ops - frames.patches.size());
+        }
+        markOverwritten(userId);
+    }
+
+    private void markOverwritten(long userId) {
+        if (syncing.contains(userId)) {
+            overwritten.add(userId);
+        }
+    }
+
+    void flush() throws IOException {
+        flushLock.lock();
+        try {
+            flushQueued.set(false);
+            IOException failure = null;
+            for (Long userId : pending.keySet()) {
+                ReentrantLock lock = locks.apply(userId);
+                lock.lock();
+                try {
+                    PendingFrames frames = pending.remove(userId);
+                    if (frames == null) {
+                        continue;
+                    }
+                    try {
+                        writeQueued(userId, frames);
+                    } catch (IOException e) {
+                        // Whatever was written has been taken out of the buffer, so a retry does not repeat it
+                        pending.put(userId, frames);
+                        failure = e;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (fsyncPolicy == FsyncPolicy.BATCH) {
+                sync();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeQueued(long userId, PendingFrames frames) throws IOException {
+        Path path = files.apply(userId);
+        long started = System.nanoTime();
+        if (frames.length > 0) {
+            RecordFile.append(path, userId, ByteBuffer.wrap(frames.bytes, 0, frames.length), false);
+            pendingOps.addAndGet(-frames.ops);
+            frames.length = 0;
+            frames.ops = 0;
+            unsynced.add(userId);
+        }
+        for (Iterator<Map.Entry<Integer, Record>> it = frames.patches.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Record> patch = it.next();
+            // Without fsyncs no frame in the file can be patched safely; rewriting the whole file carries the edit instead
+            if (!RecordFile.patch(path, patch.getKey(), patch.getValue(), fsyncPolicy != FsyncPolicy.NEVER)) {
+                rewrite.accept(userId);
+            }
+            it.remove();
+            pendingOps.decrementAndGet();
+            markOverwritten(userId);
+            unsynced.add(userId);
+        }
+        recordLatency(started);
+    }
+
+    void close() throws IOException {
+        writeBehind = false;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (!pending.isEmpty()) {
+            // A writer that saw write-behind still enabled may have queued frames during the first pass
+            flush();
+        }
+        if (fsyncPolicy != FsyncPolicy.NEVER) {
+            sync();
+        }
+    }
+
+    // The fsync runs without the user's lock; the verified offset is then moved to the length taken before it, unless
+    // the file was patched or replaced in between, in which case the user waits for the next sync
+    private void sync() throws IOException {
+        IOException failure = null;
+        for (Long userId : unsynced) {
+            ReentrantLock lock = locks.apply(userId);
+            Path path = files.apply(userId);
+            long length;
+            lock.lock();
+            try {
+                unsynced.remove(userId);
+                length = Files.exists(path) ? Files.size(path) : 0;
+                syncing.add(userId);
+            } catch (IOException e) {
+                unsynced.add(userId);
+                failure = e;
+                continue;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                long started = System.nanoTime();
+                RecordFile.force(path);
+                recordLatency(started);
+            } catch (IOException e) {
+                failure = e;
+                markOverwritten(userId);
+            }
+            lock.lock();
+            try {
+                syncing.remove(userId);
+                if (overwritten.remove(userId)) {
+                    unsynced.add(userId);
+                } else if (length >= RecordFile.HEADER_SIZE) {
+                    RecordFile.setVerifiedOffset(path, length);
+                }
+            } catch (IOException e) {
+                unsynced.add(userId);
+                failure = e;
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Moving average of recent appends, patches and fsyncs; a quiet period reads as no latency at all
+    long writeLatencyMicros() {
+        return System.nanoTime() - lastWriteNanos > LATENCY_WINDOW_NANOS ? 0 : writeLatencyMicros.get();
+    }
+
+    private void recordLatency(long startedNanos) {
+        long now = System.nanoTime();
+        long sample = (now - startedNanos) / 1000;
+        writeLatencyMicros.updateAndGet(average -> average + (sample - average) / 8);
+        lastWriteNanos = now;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Record flush failed: " + e.getMessage());
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Record fsync failed: " + e.getMessage());
+        }
+    }
+}
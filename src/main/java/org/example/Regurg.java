@@ -0,0 +1,36 @@
+package org.example;
+
+public enum Regurg {
+    UNKNOWN("unknown"),
+    AIR("air"),
+    MILK("milk"),
+    NO("no");
+
+    private static final Regurg[] VALUES = values();
+    private final String code;
+
+    Regurg(String code) {
+        this.code = code;
+    }
+
+    public String code() {
+        return code;
+    }
+
+    public byte toByte() {
+        return (byte) ordinal();
+    }
+
+    public static Regurg fromByte(byte value) {
+        return value >= 0 && value < VALUES.length ? VALUES[value] : UNKNOWN;
+    }
+
+    public static Regurg fromCode(CharSequence code) {
+        for (Regurg r : VALUES) {
+            if (r.code.contentEquals(code)) {
+                return r;
+            }
+        }
+        return UNKNOWN;
+    }
+}
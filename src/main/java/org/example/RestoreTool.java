@@ -0,0 +1,181 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Command-line checks and restores of the daily archives, run from the same working directory as the bot:
+ *
+ *   java -jar babyfeedbot.jar verify [dd-MM-yyyy]
+ *   java -jar babyfeedbot.jar restore <data dir> [dd-MM-yyyy] [id,id,...]
+ *
+ * Without a date the latest manifest is used. Files are processed in parallel on babyfeedbot.backup.threads.
+ */
+public class RestoreTool {
+    private static final String DATE_PATTERN = "\\d{2}-\\d{2}-\\d{4}";
+    private static final String USERS_PATTERN = "-?\\d+(,-?\\d+)*";
+
+    private RestoreTool() {
+    }
+
+    // Returns the process exit code: 0 on success, 1 if any file failed, 2 on bad arguments
+    public static int run(String[] args) {
+        try {
+            if (args[0].equals("verify") && args.length <= 2) {
+                return verify(BackupService.manifestFor(args.length == 2 ? args[1] : null));
+            }
+            if (args[0].equals("restore") && args.length >= 2 && args.length <= 4) {
+                String dateStr = null;
+                Set<Long> users = null;
+                for (int i = 2; i < args.length; i++) {
+                    if (args[i].matches(DATE_PATTERN)) {
+                        dateStr = args[i];
+                    } else if (args[i].matches(USERS_PATTERN)) {
+                        users = new HashSet<>();
+                        for (String id : args[i].split(",")) {
+                            users.add(Long.parseLong(id));
+                        }
+                    } else {
+                        return usage();
+                    }
+                }
+                return restore(BackupService.manifestFor(dateStr), Paths.get(args[1]), users);
+            }
+            return usage();
+        } catch (IOException e) {
+            System.err.println("Ошибка: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static int usage() {
+        System.err.println("Использование:");
+        System.err.println("  java -jar babyfeedbot.jar verify [ДД-ММ-ГГГГ]");
+        System.err.println("  java -jar babyfeedbot.jar restore <каталог данных> [ДД-ММ-ГГГГ] [id,id,...]");
+        return 2;
+    }
+
+    // Reads every file of the manifest back, checking its checksum and, for record files, every frame
+    static int verify(Path manifest) throws IOException {
+        Map<String, BackupService.ManifestEntry> entries = readManifest(manifest);
+        long started = System.nanoTime();
+        int failed = forEach(new ArrayList<>(entries.values()), entry -> {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            BackupService.read(entry, content);
+            if (entry.fileName.endsWith(RecordFile.EXTENSION)
+                    && !RecordFile.isIntact(ByteBuffer.wrap(content.toByteArray()), userId(entry))) {
+                throw new IOException("Damaged record file " + entry.fileName + " in " + entry.archivedAs);
+            }
+        });
+        System.out.println("Проверено " + entries.size() + " файлов из " + manifest + " за " + (System.nanoTime() - started) / 1_000_000
+                + " мс, с ошибками: " + failed);
+        List<String> notArchived = BackupService.readFailed(manifest);
+        if (!notArchived.isEmpty()) {
+            System.err.println("Архив частичный: при архивации не удалось упаковать " + notArchived.size()
+                    + " файлов, для них указаны копии из прежних архивов: " + String.join(", ", notArchived));
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    // Extracts the users' files into the data layout under target. Record files are replayed on the way, which checks
+    // every frame and rebuilds the id index and daily totals, and are written back compacted so the bot loads them
+    // with a single pass.
+    static int restore(Path manifest, Path target, Set<Long> users) throws IOException {
+        Map<String, BackupService.ManifestEntry> entries = readManifest(manifest);
+        List<BackupService.ManifestEntry> selected = new ArrayList<>();
+        for (BackupService.ManifestEntry entry : entries.values()) {
+            OptionalLong userId = entry.userId();
+            if (users == null || userId.isPresent() && users.contains(userId.getAsLong())) {
+                selected.add(entry);
+            }
+        }
+        long started = System.nanoTime();
+        AtomicLong records = new AtomicLong();
+        int failed = forEach(selected, entry -> {
+            long userId = userId(entry);
+            String extension = entry.fileName.substring(entry.fileName.lastIndexOf('.'));
+            Path file = DataLayout.userFile(target, userId, extension);
+            Files.createDirectories(file.getParent());
+            BackupService.extract(entry, file);
+            if (!extension.equals(RecordFile.EXTENSION)) {
+                return;
+            }
+            UserRecords userRecords = new UserRecords(userId);
+            if (RecordFile.read(file, userRecords) < 0) {
+                throw new IOException("Unrecognised record file " + entry.fileName + " in " + entry.archivedAs);
+            }
+            RecordFile.write(file, userRecords, true);
+            records.addAndGet(userRecords.size());
+        });
+        System.out.println("Восстановлено " + (selected.size() - failed) + " из " + selected.size() + " файлов (" + records.get()
+                + " записей) в " + target + " за " + (System.nanoTime() - started) / 1_000_000 + " мс");
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static long userId(BackupService.ManifestEntry entry) throws IOException {
+        OptionalLong userId = entry.userId();
+        if (userId.isEmpty()) {
+            throw new IOException("Not a user file: " + entry.fileName);
+        }
+        return userId.getAsLong();
+    }
+
+    private static Map<String, BackupService.ManifestEntry> readManifest(Path manifest) throws IOException {
+        if (manifest == null || !Files.exists(manifest)) {
+            throw new IOException("Manifest not found" + (manifest == null ? "" : ": " + manifest));
+        }
+        return BackupService.readManifest(manifest);
+    }
+
+    private interface EntryTask {
+        void run(BackupService.ManifestEntry entry) throws IOException;
+    }
+
+    // Runs the task for every entry on a bounded pool and returns how many failed; failures are reported as they occur
+    private static int forEach(List<BackupService.ManifestEntry> entries, EntryTask task) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(BackupService.backupThreads(), r -> {
+            Thread t = new Thread(r, "restore-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (BackupService.ManifestEntry entry : entries) {
+                results.add(pool.submit(() -> {
+                    task.run(entry);
+                    return null;
+                }));
+            }
+            int failed = 0;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(entries.get(i).fileName + ": " + e.getCause().getMessage());
+                }
+            }
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fixed-size JDBC connection pool; connections are opened on demand up to the limit and reused
+class SqlConnectionPool {
+    private static final long BORROW_TIMEOUT_MILLIS = 30_000;
+    private final String url;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final BlockingQueue<Connection> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    SqlConnectionPool(String url, int maxSize) {
+        this(url, maxSize, BORROW_TIMEOUT_MILLIS);
+    }
+
+    SqlConnectionPool(String url, int maxSize, long borrowTimeoutMillis) {
+        this.url = url;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idle = new ArrayBlockingQueue<>(this.maxSize);
+    }
+
+    Connection borrow() throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        while (!closed) {
+            Connection connection = idle.poll();
+            if (connection != null) {
+                return connection;
+            }
+            if (opened.incrementAndGet() <= maxSize) {
+                try {
+                    return DriverManager.getConnection(url);
+                } catch (SQLException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            }
+            opened.decrementAndGet();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SQLException("No database connection available after " + borrowTimeoutMillis + " ms");
+            }
+            try {
+                // Wake up periodically in case a dropped connection freed room to open a new one
+                connection = idle.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            if (connection != null) {
+                return connection;
+            }
+        }
+        throw new SQLException("Connection pool is closed");
+    }
+
+    // Broken connections are dropped so the next borrow opens a fresh one
+    void release(Connection connection, boolean broken) {
+        try {
+            if (!broken && !closed && !connection.isClosed()) {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                if (idle.offer(connection)) {
+                    return;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Dropping database connection: " + e.getMessage());
+        }
+        opened.decrementAndGet();
+        closeQuietly(connection);
+    }
+
+    void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            opened.decrementAndGet();
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing database connection: " + e.getMessage());
+        }
+    }
+}
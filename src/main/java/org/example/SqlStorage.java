@@ -0,0 +1,435 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/*
+ * StorageEngine on an embedded database over JDBC (H2 by default). Records carry their epoch day so
+ * per-day screens and aggregates are answered from the (user_id, feed_day, feed_minute) index.
+ */
+public class SqlStorage implements StorageEngine {
+    static final String DEFAULT_URL = "jdbc:h2:" + DataLayout.root().resolve("babyfeedbot").toAbsolutePath();
+    private static final int LOCK_STRIPES = Integer.highestOneBit(Math.max(1, Integer.getInteger("babyfeedbot.lockStripes", 64)));
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS feeding (user_id BIGINT NOT NULL, id INT NOT NULL, feed_minute INT NOT NULL,"
+                    + " feed_day INT NOT NULL, amount_ml SMALLINT NOT NULL, regurg TINYINT NOT NULL, created_at INT NOT NULL,"
+                    + " PRIMARY KEY (user_id, id))",
+            "CREATE INDEX IF NOT EXISTS feeding_user_day ON feeding (user_id, feed_day, feed_minute)",
+            // Newest first, so a page of the latest feedings is read off the index instead of sorting all of the user's
+            "CREATE INDEX IF NOT EXISTS feeding_user_latest ON feeding (user_id DESC, feed_minute DESC, id DESC)",
+            "CREATE TABLE IF NOT EXISTS user_counter (user_id BIGINT PRIMARY KEY, next_id INT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS chat_profile (chat_id BIGINT PRIMARY KEY, delete_messages BOOLEAN,"
+                    + " zone_id VARCHAR(64), header_message_id INT)"
+    };
+    private static final String RECORD_COLUMNS = "SELECT id, feed_minute, amount_ml, regurg, created_at FROM feeding ";
+    private static final String STATS_COLUMNS = "SELECT COUNT(*), SUM(amount_ml), MIN(amount_ml), MAX(amount_ml),"
+            + " SUM(CASE WHEN regurg = " + Regurg.MILK.toByte() + " THEN 1 ELSE 0 END)";
+    private final SqlConnectionPool pool;
+    private final ReentrantLock[] userLocks = new ReentrantLock[LOCK_STRIPES];
+    // Profiles are read on almost every update, so they are kept in memory and written through
+    private final Map<Long, ChatProfile> profiles = new ConcurrentHashMap<>();
+
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    public SqlStorage(String url, int poolSize) {
+        pool = new SqlConnectionPool(url, poolSize);
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private ReentrantLock lockFor(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return userLocks[(int) (h >>> 32) & (userLocks.length - 1)];
+    }
+
+    private <T> T query(SqlWork<T> work) throws IOException {
+        Connection connection;
+        try {
+            connection = pool.borrow();
+        } catch (SQLException e) {
+            throw new IOException("Database unavailable: " + e.getMessage(), e);
+        }
+        boolean broken = false;
+        try {
+            return work.run(connection);
+        } catch (SQLException e) {
+            broken = isConnectionError(e);
+            throw new IOException("Database error: " + e.getMessage(), e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    private <T> T transaction(SqlWork<T> work) throws IOException {
+        return query(connection -> {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    // SQLSTATE class 08 is a connection exception
+    private static boolean isConnectionError(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+
+    @Override
+    public void loadCacheIfNeeded() throws IOException {
+        query(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT chat_id, delete_messages, zone_id, header_message_id FROM chat_profile");
+                 ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    boolean delete = rs.getBoolean(2);
+                    Boolean deleteMessages = rs.wasNull() ? null : delete;
+                    String zone = rs.getString(3);
+                    int header = rs.getInt(4);
+                    Integer headerMessageId = rs.wasNull() ? null : header;
+                    try {
+                        profiles.put(rs.getLong(1), new ChatProfile(deleteMessages, zone == null ? null : ZoneId.of(zone), headerMessageId));
+                    } catch (DateTimeException e) {
+                        System.err.println("Invalid time zone for chat " + rs.getLong(1) + ": " + zone);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    @Override
+    public int addRecord(long userId, String date, String time, int amountMl, String regurg) throws IOException {
+        int minute = Utils.toEpochMinute(date, time);
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            return transaction(connection -> {
+                int id = allocateId(connection, userId);
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO feeding (user_id, id, feed_minute, feed_day, amount_ml, regurg, created_at) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                    insert.setLong(1, userId);
+                    insert.setInt(2, id);
+                    insert.setInt(3, minute);
+                    insert.setInt(4, Math.floorDiv(minute, Utils.MINUTES_PER_DAY));
+                    insert.setShort(5, (short) amountMl);
+                    insert.setByte(6, Regurg.fromCode(regurg).toByte());
+                    insert.setInt(7, Utils.getCurrentCreatedAtMinute());
+                    insert.executeUpdate();
+                }
+                return id;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The counter row outlives deletes, so ids are never reused
+    private static int allocateId(Connection connection, long userId) throws SQLException {
+        int next = 1;
+        boolean exists = false;
+        try (PreparedStatement select = connection.prepareStatement("SELECT next_id FROM user_counter WHERE user_id = ?")) {
+            select.setLong(1, userId);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    next = rs.getInt(1);
+                    exists = true;
+                }
+            }
+        }
+        try (PreparedStatement write = connection.prepareStatement(exists
+                ? "UPDATE user_counter SET next_id = ? WHERE user_id = ?"
+                : "INSERT INTO user_counter (next_id, user_id) VALUES (?, ?)")) {
+            write.setInt(1, next + 1);
+            write.setLong(2, userId);
+            write.executeUpdate();
+        }
+        return next;
+    }
+
+    @Override
+    public UserSnapshot getSnapshot(long userId) throws IOException {
+        return query(connection -> {
+            UserRecords records = new UserRecords(userId);
+            try (PreparedStatement select = connection.prepareStatement(RECORD_COLUMNS + "WHERE user_id = ? ORDER BY feed_minute, id")) {
+                select.setLong(1, userId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        records.put(rs.getInt(1), rs.getInt(2), rs.getShort(3), rs.getByte(4), rs.getInt(5));
+                    }
+                }
+            }
+            return records.snapshot();
+        });
+    }
+
+    @Override
+    public List<Record> listRecords(long userId) throws IOException {
+        return selectRecords(userId, "WHERE user_id = ? ORDER BY feed_minute, id");
+    }
+
+    @Override
+    public List<Record> listRecordsByDate(long userId, String date) throws IOException {
+        int day = Utils.toEpochDay(date);
+        return selectRecords(userId, "WHERE user_id = ? AND feed_day BETWEEN ? AND ? ORDER BY feed_minute, id", day, day);
+    }
+
+    @Override
+    public List<Record> listRecordsBetweenDates(long userId, String start, String end) throws IOException {
+        return selectRecords(userId, "WHERE user_id = ? AND feed_day BETWEEN ? AND ? ORDER BY feed_minute, id",
+                Utils.toEpochDay(start), Utils.toEpochDay(end));
+    }
+
+    @Override
+    public List<Record> listRecordsBetweenDates(long userId, String start, String end, int offset, int limit) throws IOException {
+        return selectRecords(userId, "WHERE user_id = ? AND feed_day BETWEEN ? AND ? ORDER BY feed_minute, id LIMIT ? OFFSET ?",
+                Utils.toEpochDay(start), Utils.toEpochDay(end), Math.max(0, limit), Math.max(0, offset));
+    }
+
+    @Override
+    public List<Record> listLatestRecords(long userId, int count) throws IOException {
+        return selectRecords(userId, "WHERE user_id = ? ORDER BY user_id DESC, feed_minute DESC, id DESC LIMIT ?", Math.max(0, count));
+    }
+
+    @Override
+    public Record getLastRecord(long userId) throws IOException {
+        List<Record> last = listLatestRecords(userId, 1);
+        return last.isEmpty() ? null : last.get(0);
+    }
+
+    private List<Record> selectRecords(long userId, String where, int... params) throws IOException {
+        return query(connection -> {
+            try (PreparedStatement select = connection.prepareStatement(RECORD_COLUMNS + where)) {
+                select.setLong(1, userId);
+                for (int i = 0; i < params.length; i++) {
+                    select.setInt(i + 2, params[i]);
+                }
+                List<Record> result = new ArrayList<>();
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(new Record(rs.getInt(1), userId, rs.getInt(2), rs.getShort(3), rs.getByte(4), rs.getInt(5)));
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    @Override
+    public DailyStats getDailyStats(long userId, String date) throws IOException {
+        int day = Utils.toEpochDay(date);
+        DailyStats stats = summarize(userId, day, day);
+        return stats.getCount() == 0 ? null : stats;
+    }
+
+    @Override
+    public List<DailyStats> listDailyStats(long userId, String start, String end) throws IOException {
+        return query(connection -> {
+            try (PreparedStatement select = connection.prepareStatement(STATS_COLUMNS + ", feed_day FROM feeding"
+                    + " WHERE user_id = ? AND feed_day BETWEEN ? AND ? GROUP BY feed_day ORDER BY feed_day")) {
+                select.setLong(1, userId);
+                select.setInt(2, Utils.toEpochDay(start));
+                select.setInt(3, Utils.toEpochDay(end));
+                List<DailyStats> result = new ArrayList<>();
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        result.add(readStats(rs, rs.getInt(6)));
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    @Override
+    public DailyStats summarizeBetweenDates(long userId, String start, String end) throws IOException {
+        return summarize(userId, Utils.toEpochDay(start), Utils.toEpochDay(end));
+    }
+
+    private DailyStats summarize(long userId, int startDay, int endDay) throws IOException {
+        return query(connection -> {
+            try (PreparedStatement select = connection.prepareStatement(STATS_COLUMNS
+                    + " FROM feeding WHERE user_id = ? AND feed_day BETWEEN ? AND ?")) {
+                select.setLong(1, userId);
+                select.setInt(2, startDay);
+                select.setInt(3, endDay);
+                try (ResultSet rs = select.executeQuery()) {
+                    rs.next();
+                    return readStats(rs, startDay);
+                }
+            }
+        });
+    }
+
+    // Aggregates over no rows come back as NULL, which getInt/getLong read as 0
+    private static DailyStats readStats(ResultSet rs, int day) throws SQLException {
+        return new DailyStats(day, rs.getInt(1), rs.getLong(2), rs.getInt(3), rs.getInt(4), rs.getInt(5));
+    }
+
+    @Override
+    public boolean deleteById(int id, long userId) throws IOException {
+        return query(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM feeding WHERE user_id = ? AND id = ?")) {
+                delete.setLong(1, userId);
+                delete.setInt(2, id);
+                return delete.executeUpdate() > 0;
+            }
+        });
+    }
+
+    @Override
+    public boolean updateRecord(int id, long userId, Optional<String> date, Optional<String> time, Optional<Integer> amount, Optional<String> regurg) throws IOException {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            return transaction(connection -> {
+                Record current;
+                try (PreparedStatement select = connection.prepareStatement(RECORD_COLUMNS + "WHERE user_id = ? AND id = ?")) {
+                    select.setLong(1, userId);
+                    select.setInt(2, id);
+                    try (ResultSet rs = select.executeQuery()) {
+                        if (!rs.next()) {
+                            return false;
+                        }
+                        current = new Record(rs.getInt(1), userId, rs.getInt(2), rs.getShort(3), rs.getByte(4), rs.getInt(5));
+                    }
+                }
+                int minute = date.isPresent() || time.isPresent()
+                        ? Utils.toEpochMinute(date.orElse(current.getDate()), time.orElse(current.getTime()))
+                        : current.getEpochMinute();
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE feeding SET feed_minute = ?, feed_day = ?, amount_ml = ?, regurg = ? WHERE user_id = ? AND id = ?")) {
+                    update.setInt(1, minute);
+                    update.setInt(2, Math.floorDiv(minute, Utils.MINUTES_PER_DAY));
+                    update.setShort(3, (short) (int) amount.orElse(current.getAmountMl()));
+                    update.setByte(4, regurg.map(r -> Regurg.fromCode(r).toByte()).orElse(current.getRegurgValue().toByte()));
+                    update.setLong(5, userId);
+                    update.setInt(6, id);
+                    update.executeUpdate();
+                }
+                return true;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteAllForUser(long userId) throws IOException {
+        query(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM feeding WHERE user_id = ?")) {
+                delete.setLong(1, userId);
+                delete.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // H2 copies the database files together with the transaction log, so the copy is consistent while writes go on
+    @Override
+    public boolean backupDatabase(Path target) throws IOException {
+        query(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("BACKUP TO '" + target.toAbsolutePath().toString().replace("'", "''") + "'");
+            }
+            return null;
+        });
+        return true;
+    }
+
+    @Override
+    public ChatProfile getProfile(long chatId) {
+        return profiles.getOrDefault(chatId, ChatProfile.EMPTY);
+    }
+
+    @Override
+    public void saveDeletePreference(long chatId, boolean deleteMessages) throws IOException {
+        updateProfile(chatId, p -> p.withDeleteMessages(deleteMessages));
+    }
+
+    @Override
+    public void saveTimeZonePreference(long chatId, String zone) throws IOException {
+        ZoneId zoneId = ZoneId.of(zone);
+        updateProfile(chatId, p -> p.withZone(zoneId));
+    }
+
+    @Override
+    public void saveHeaderMessageId(long chatId, int messageId) throws IOException {
+        updateProfile(chatId, p -> p.withHeaderMessageId(messageId));
+    }
+
+    private void updateProfile(long chatId, UnaryOperator<ChatProfile> change) throws IOException {
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            ChatProfile updated = change.apply(getProfile(chatId));
+            query(connection -> {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE chat_profile SET delete_messages = ?, zone_id = ?, header_message_id = ? WHERE chat_id = ?")) {
+                    bindProfile(update, updated, chatId);
+                    if (update.executeUpdate() > 0) {
+                        return null;
+                    }
+                }
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO chat_profile (delete_messages, zone_id, header_message_id, chat_id) VALUES (?, ?, ?, ?)")) {
+                    bindProfile(insert, updated, chatId);
+                    insert.executeUpdate();
+                }
+                return null;
+            });
+            profiles.put(chatId, updated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void bindProfile(PreparedStatement statement, ChatProfile profile, long chatId) throws SQLException {
+        if (profile.getDeleteMessages() == null) {
+            statement.setNull(1, Types.BOOLEAN);
+        } else {
+            statement.setBoolean(1, profile.getDeleteMessages());
+        }
+        statement.setString(2, profile.getZone() == null ? null : profile.getZone().getId());
+        if (profile.getHeaderMessageId() == null) {
+            statement.setNull(3, Types.INTEGER);
+        } else {
+            statement.setInt(3, profile.getHeaderMessageId());
+        }
+        statement.setLong(4, chatId);
+    }
+}
@@ -1,274 +1,645 @@
-package org.example;
-
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.time.LocalDate;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
-
-public class Storage {
-    private static final String DELIMITER = ";";
-    private static final String PREF_FILE = "preferences.dat";
-    private static final String TZ_FILE = "timezones.dat";
-    private final ReentrantLock lock = new ReentrantLock();
-    private final Map<Long, List<Record>> cache = new ConcurrentHashMap<>();
-
-    private String getUserFile(long userId) {
-        return "babyfeedbot_" + userId + ".csv";
-    }
-
-    public void loadCacheIfNeeded() throws IOException {
-        // Lazy loading per user, so no global load needed
-    }
-
-    private void ensureUserLoaded(long userId) throws IOException {
-        if (!cache.containsKey(userId)) {
-            lock.lock();
-            try {
-                if (!cache.containsKey(userId)) {
-                    loadUserRecords(userId);
-                }
-            } finally {
-                lock.unlock();
-            }
-        }
-    }
-
-    private void loadUserRecords(long userId) throws IOException {
-        Path path = Paths.get(getUserFile(userId));
-        List<Record> records = new ArrayList<>();
-        if (Files.exists(path)) {
-            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String[] parts = line.split(DELIMITER, -1);
-                    if (parts.length == 7) {
-                        try {
-                            int id = Integer.parseInt(parts[0]);
-                            long uId = Long.parseLong(parts[1]);
-                            String date = parts[2];
-                            String time = parts[3];
-                            int amountMl = Integer.parseInt(parts[4]);
-                            String regurg = parts[5];
-                            String createdAt = parts[6];
-                            if (uId == userId) {
-                                records.add(new Record(id, uId, date, time, amountMl, regurg, createdAt));
-                            }
-                        } catch (NumberFormatException e) {
-                            System.err.println("Invalid line: " + line);
-                        }
-                    }
-                }
-            }
-        }
-        cache.put(userId, records);
-    }
-
-    private void writeUserRecords(long userId) throws IOException {
-        List<Record> records = cache.get(userId);
-        if (records == null) return;
-        String userFile = getUserFile(userId);
-        Path tmpPath = Paths.get(userFile + ".tmp");
-        try (BufferedWriter writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
-            for (Record r : records) {
-                writer.write(String.join(DELIMITER,
-                        String.valueOf(r.getId()),
-                        String.valueOf(r.getUserId()),
-                        r.getDate(),
-                        r.getTime(),
-                        String.valueOf(r.getAmountMl()),
-                        r.getRegurg(),
-                        r.getCreatedAt()));
-                writer.newLine();
-            }
-        }
-        Files.move(tmpPath, Paths.get(userFile), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-    }
-
-    public int addRecord(long userId, String date, String time, int amountMl, String regurg) throws IOException {
-        ensureUserLoaded(userId);
-        lock.lock();
-        try {
-            List<Record> userRecords = cache.get(userId);
-            int nextId = userRecords.stream().mapToInt(Record::getId).max().orElse(0) + 1;
-            String createdAt = Utils.getCurrentCreatedAt();
-            Record newRecord = new Record(nextId, userId, date, time, amountMl, regurg, createdAt);
-            userRecords.add(newRecord);
-            writeUserRecords(userId);
-            return nextId;
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    public List<Record> listRecords(long userId) throws IOException {
-        ensureUserLoaded(userId);
-        return cache.get(userId).stream()
-                .sorted(Comparator.comparing(r -> Utils.parseToLocalDateTime(r.getDate(), r.getTime())))
-                .collect(Collectors.toList());
-    }
-
-    public List<Record> listRecordsByDate(long userId, String date) throws IOException {
-        ensureUserLoaded(userId);
-        return cache.get(userId).stream()
-                .filter(r -> r.getDate().equals(date))
-                .sorted(Comparator.comparing(r -> Utils.parseToLocalDateTime(r.getDate(), r.getTime())))
-                .collect(Collectors.toList());
-    }
-
-    public List<Record> listRecordsBetweenDates(long userId, String start, String end) throws IOException {
-        ensureUserLoaded(userId);
-        LocalDate startDate = LocalDate.parse(start, Utils.DATE_FORMATTER);
-        LocalDate endDate = LocalDate.parse(end, Utils.DATE_FORMATTER);
-        return cache.get(userId).stream()
-                .filter(r -> {
-                    LocalDate rDate = LocalDate.parse(r.getDate(), Utils.DATE_FORMATTER);
-                    return !rDate.isBefore(startDate) && !rDate.isAfter(endDate);
-                })
-                .sorted(Comparator.comparing(r -> Utils.parseToLocalDateTime(r.getDate(), r.getTime())))
-                .collect(Collectors.toList());
-    }
-
-    public boolean deleteById(int id, long userId) throws IOException {
-        ensureUserLoaded(userId);
-        lock.lock();
-        try {
-            List<Record> userRecords = cache.get(userId);
-            boolean removed = userRecords.removeIf(r -> r.getId() == id);
-            if (removed) {
-                writeUserRecords(userId);
-            }
-            return removed;
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    public boolean updateRecord(int id, long userId, Optional<String> date, Optional<String> time, Optional<Integer> amount, Optional<String> regurg) throws IOException {
-        ensureUserLoaded(userId);
-        lock.lock();
-        try {
-            List<Record> userRecords = cache.get(userId);
-            Optional<Record> recordOpt = userRecords.stream().filter(r -> r.getId() == id).findFirst();
-            if (recordOpt.isEmpty()) {
-                return false;
-            }
-            Record record = recordOpt.get();
-            date.ifPresent(record::setDate);
-            time.ifPresent(record::setTime);
-            amount.ifPresent(record::setAmountMl);
-            regurg.ifPresent(record::setRegurg);
-            writeUserRecords(userId);
-            return true;
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    public void deleteAllForUser(long userId) throws IOException {
-        lock.lock();
-        try {
-            cache.remove(userId);
-            Path userPath = Paths.get(getUserFile(userId));
-            if (Files.exists(userPath)) {
-                Files.delete(userPath);
-            }
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    public boolean updateRegurg(int id, long userId, String newRegurg) throws IOException {
-        return updateRecord(id, userId, Optional.empty(), Optional.empty(), Optional.empty(), Optional.of(newRegurg));
-    }
-
-    public Map<Long, Boolean> getAllDeletePreferences() throws IOException {
-        Map<Long, Boolean> prefs = new HashMap<>();
-        Path path = Paths.get(PREF_FILE);
-        if (!Files.exists(path)) {
-            return prefs;
-        }
-        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    try {
-                        long id = Long.parseLong(parts[0].trim());
-                        boolean val = Boolean.parseBoolean(parts[1].trim());
-                        prefs.put(id, val);
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid preference line: " + line);
-                    }
-                }
-            }
-        }
-        return prefs;
-    }
-
-    public void saveDeletePreference(long chatId, boolean deleteMessages) throws IOException {
-        lock.lock();
-        try {
-            Map<Long, Boolean> prefs = getAllDeletePreferences();
-            prefs.put(chatId, deleteMessages);
-            Path tmpPath = Paths.get(PREF_FILE + ".tmp");
-            try (BufferedWriter bw = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
-                for (Map.Entry<Long, Boolean> entry : prefs.entrySet()) {
-                    bw.write(entry.getKey() + ":" + entry.getValue());
-                    bw.newLine();
-                }
-            }
-            Files.move(tmpPath, Paths.get(PREF_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    public Map<Long, String> getAllTimeZones() throws IOException {
-        Map<Long, String> prefs = new HashMap<>();
-        Path path = Paths.get(TZ_FILE);
-        if (!Files.exists(path)) {
-            return prefs;
-        }
-        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    try {
-                        long id = Long.parseLong(parts[0].trim());
-                        String val = parts[1].trim();
-                        prefs.put(id, val);
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid timezone line: " + line);
-                    }
-                }
-            }
-        }
-        return prefs;
-    }
-
-    public void saveTimeZonePreference(long chatId, String zone) throws IOException {
-        lock.lock();
-        try {
-            Map<Long, String> prefs = getAllTimeZones();
-            prefs.put(chatId, zone);
-            Path tmpPath = Paths.get(TZ_FILE + ".tmp");
-            try (BufferedWriter bw = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
-                for (Map.Entry<Long, String> entry : prefs.entrySet()) {
-                    bw.write(entry.getKey() + ":" + entry.getValue());
-                    bw.newLine();
-                }
-            }
-            Files.move(tmpPath, Paths.get(TZ_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
-        } finally {
-            lock.unlock();
-        }
-    }
+package org.example;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class Storage implements StorageEngine {
+    private static final String JOURNAL_ADD = "A";
+    private static final String JOURNAL_UPDATE = "U";
+    private static final String JOURNAL_DELETE = "D";
+    private static final int COMPACT_THRESHOLD = Integer.getInteger("babyfeedbot.journal.compactThreshold", 200);
+    private static final double COMPACT_GARBAGE_RATIO = Double.parseDouble(System.getProperty("babyfeedbot.compact.garbageRatio", "0.5"));
+    private static final String CLEAN_SHUTDOWN_MARKER = "clean-shutdown";
+    private static final int LOCK_STRIPES = Integer.highestOneBit(Math.max(1, Integer.getInteger("babyfeedbot.lockStripes", 64)));
+    private final ReentrantLock[] userLocks = new ReentrantLock[LOCK_STRIPES];
+    private final ChatProfiles profiles = new ChatProfiles();
+    private static final boolean WRITE_BEHIND = Boolean.getBoolean("babyfeedbot.writeBehind");
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("babyfeedbot.flush.intervalMs", 200L);
+    private static final int FLUSH_MAX_OPS = Integer.getInteger("babyfeedbot.flush.maxOps", 256);
+    private static final RecordFlusher.FsyncPolicy FSYNC_POLICY =
+            RecordFlusher.FsyncPolicy.valueOf(System.getProperty("babyfeedbot.fsync", "interval").toUpperCase(Locale.ROOT));
+    private static final long FSYNC_INTERVAL_MS = Long.getLong("babyfeedbot.fsync.intervalMs", 1000L);
+    private static final long CACHE_MAX_RECORDS = Long.getLong("babyfeedbot.cache.maxRecords", 2_000_000L);
+    private static final int WARMUP_USERS = Integer.getInteger("babyfeedbot.warmup.users", 0);
+    private static final int WARMUP_THREADS = Integer.getInteger("babyfeedbot.warmup.threads", 4);
+    private static final long WARMUP_MAX_RECORDS = Long.getLong("babyfeedbot.warmup.maxRecords", CACHE_MAX_RECORDS / 2);
+    private final Map<Long, Integer> frameCounts = new ConcurrentHashMap<>();
+    private final Set<Long> compactionsPending = ConcurrentHashMap.newKeySet();
+    // Every user with files on disk, so loads for brand-new chats skip the filesystem entirely
+    private final Set<Long> knownUsers = ConcurrentHashMap.newKeySet();
+    // Users whose files are still in the flat working-directory layout
+    private final Set<Long> legacyUsers = ConcurrentHashMap.newKeySet();
+    private final RecordFlusher flusher = new RecordFlusher(WRITE_BEHIND, FSYNC_POLICY, FLUSH_INTERVAL_MS, FLUSH_MAX_OPS,
+            FSYNC_INTERVAL_MS, this::lockFor, this::getUserFile, this::scheduleCompaction);
+    // Users with frames still queued for the flusher stay resident, so a reload can never miss them
+    private final UserCache cache = new UserCache(CACHE_MAX_RECORDS, this::lockFor,
+            userId -> compactionsPending.contains(userId) || flusher.hasPending(userId), frameCounts::remove);
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "journal-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService warmup = Executors.newFixedThreadPool(Math.max(1, WARMUP_THREADS), r -> {
+        Thread t = new Thread(r, "cache-warmup");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService migrator = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "layout-migrator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile BackupCut backupCut;
+
+    public Storage() {
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private ReentrantLock lockFor(long userId) {
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return userLocks[(int) (h >>> 32) & (userLocks.length - 1)];
+    }
+
+    private Path getUserFile(long userId) {
+        return DataLayout.userFile(userId, RecordFile.EXTENSION);
+    }
+
+    private Path getCsvFile(long userId) {
+        return DataLayout.userFile(userId, ".csv");
+    }
+
+    private Path getJournalFile(long userId) {
+        return DataLayout.userFile(userId, ".journal");
+    }
+
+    @Override
+    public void loadCacheIfNeeded() throws IOException {
+        // Records load lazily per user; chat profiles are small and read in one pass up front
+        profiles.load();
+        // The marker exists only between a clean close and the next start, so a missing one means a crash
+        boolean clean = Files.deleteIfExists(DataLayout.root().resolve(CLEAN_SHUTDOWN_MARKER));
+        List<Path> userFiles = DataLayout.listUserFiles();
+        for (Path file : userFiles) {
+            knownUsers.add(DataLayout.parseUserId(file).getAsLong());
+        }
+        if (!clean && !userFiles.isEmpty()) {
+            recoverRecordFiles(userFiles);
+        }
+        if (WARMUP_USERS > 0) {
+            warmUp(userFiles);
+        }
+        for (Path file : DataLayout.listLegacyUserFiles()) {
+            long userId = DataLayout.parseUserId(file).getAsLong();
+            knownUsers.add(userId);
+            legacyUsers.add(userId);
+        }
+        if (!legacyUsers.isEmpty()) {
+            System.out.println("Migrating " + legacyUsers.size() + " users to " + DataLayout.root());
+            migrator.execute(this::migrateLegacyUsers);
+        }
+    }
+
+    // Checks only the frames each file wrote after its last fsync, so recovery time follows the unsynced tail, not the data size
+    private void recoverRecordFiles(List<Path> userFiles) {
+        long started = System.nanoTime();
+        int checked = 0;
+        for (Path file : userFiles) {
+            if (!file.getFileName().toString().endsWith(RecordFile.EXTENSION)) {
+                continue;
+            }
+            try {
+                if (RecordFile.recover(file)) {
+                    checked++;
+                }
+            } catch (IOException e) {
+                System.err.println("Recovery failed for " + file + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Recovered " + checked + " record files in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    // Preloads the most recently written users in the background so the first taps after a restart hit the cache
+    private void warmUp(List<Path> userFiles) throws IOException {
+        List<Path> recordFiles = new ArrayList<>();
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : userFiles) {
+            if (file.getFileName().toString().endsWith(RecordFile.EXTENSION)) {
+                recordFiles.add(file);
+                modified.put(file, Files.getLastModifiedTime(file).toMillis());
+            }
+        }
+        recordFiles.sort(Comparator.comparing(modified::get, Comparator.reverseOrder()));
+        List<Long> users = new ArrayList<>();
+        long records = 0;
+        for (Path file : recordFiles) {
+            // Frames bound the live records from above, so the cap holds even before the files are read
+            records += (Files.size(file) - RecordFile.HEADER_SIZE) / RecordFile.FRAME_SIZE;
+            if (users.size() == WARMUP_USERS || records > WARMUP_MAX_RECORDS) {
+                break;
+            }
+            users.add(DataLayout.parseUserId(file).getAsLong());
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(users.size());
+        Queue<Long> skipped = new ConcurrentLinkedQueue<>();
+        for (Long userId : users) {
+            warmup.execute(() -> {
+                if (!warmUser(userId)) {
+                    skipped.add(userId);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    // Two warm-up tasks can meet on a stripe too; the last task retries what was skipped on its own
+                    for (Long again : skipped) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        warmUser(again);
+                    }
+                    System.out.println("Warmed up " + users.size() + " users in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+                }
+            });
+        }
+    }
+
+    // Returns false if the stripe is held, as by a request loading a user on demand; the user is skipped rather than waited for
+    private boolean warmUser(long userId) {
+        ReentrantLock lock = lockFor(userId);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (cache.peek(userId) == null) {
+                loadUserRecords(userId);
+            }
+        } catch (IOException e) {
+            System.err.println("Warm-up failed for " + userId + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    // Runs in the background while the bot serves requests; a user loaded before their turn is moved on demand
+    private void migrateLegacyUsers() {
+        for (Long userId : new ArrayList<>(legacyUsers)) {
+            if (migrator.isShutdown()) {
+                return;
+            }
+            ReentrantLock lock = lockFor(userId);
+            lock.lock();
+            try {
+                moveLegacyFiles(userId);
+            } catch (IOException e) {
+                System.err.println("Layout migration failed for " + userId + ": " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+        System.out.println("Layout migration finished");
+    }
+
+    private void moveLegacyFiles(long userId) throws IOException {
+        if (!legacyUsers.remove(userId)) {
+            return;
+        }
+        Files.createDirectories(DataLayout.userDir(userId));
+        for (String extension : new String[]{RecordFile.EXTENSION, ".csv", ".journal"}) {
+            Path source = DataLayout.legacyUserFile(userId, extension);
+            if (!Files.exists(source)) {
+                continue;
+            }
+            Path target = DataLayout.userFile(userId, extension);
+            if (Files.exists(target)) {
+                System.err.println("Skipping " + source + ": " + target + " already exists");
+                continue;
+            }
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        warmup.shutdownNow();
+        migrator.shutdown();
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher.close();
+        Files.createDirectories(DataLayout.root());
+        Files.writeString(DataLayout.root().resolve(CLEAN_SHUTDOWN_MARKER), "");
+    }
+
+    public UserCache getCache() {
+        return cache;
+    }
+
+    private UserRecords ensureUserLoaded(long userId) throws IOException {
+        UserRecords records = cache.get(userId);
+        if (records == null) {
+            ReentrantLock lock = lockFor(userId);
+            lock.lock();
+            try {
+                records = cache.peek(userId);
+                if (records == null) {
+                    records = loadUserRecords(userId);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return records;
+    }
+
+    private UserRecords loadUserRecords(long userId) throws IOException {
+        Path path = getUserFile(userId);
+        UserRecords records = new UserRecords(userId);
+        int frames;
+        if (!knownUsers.contains(userId)) {
+            frames = 0;
+        } else {
+            moveLegacyFiles(userId);
+            if (Files.exists(path)) {
+                frames = RecordFile.read(path, records);
+                if (frames < 0) {
+                    throw new IOException("Unrecognised record file " + path);
+                }
+            } else {
+                convertCsv(records);
+                frames = records.size();
+            }
+        }
+        frameCounts.put(userId, frames);
+        cache.put(userId, records);
+        return records;
+    }
+
+    // Users still on the CSV base + text journal layout are converted to the binary format on first load
+    private void convertCsv(UserRecords records) throws IOException {
+        long userId = records.getUserId();
+        Path csvPath = getCsvFile(userId);
+        Path journalPath = getJournalFile(userId);
+        if (!Files.exists(csvPath) && !Files.exists(journalPath)) {
+            return;
+        }
+        if (Files.exists(csvPath)) {
+            try (CsvLineReader line = new CsvLineReader(csvPath)) {
+                while (line.nextLine()) {
+                    if (!line.isBlank() && !putRecord(records, line, 0)) {
+                        reportInvalidLine(csvPath, line);
+                    }
+                }
+            }
+        }
+        replayJournal(records);
+        RecordFile.write(getUserFile(userId), records, flusher.forceOnWrite());
+        Files.deleteIfExists(journalPath);
+        Files.deleteIfExists(csvPath);
+    }
+
+    private void replayJournal(UserRecords records) throws IOException {
+        Path path = getJournalFile(records.getUserId());
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (CsvLineReader line = new CsvLineReader(path)) {
+            while (line.nextLine()) {
+                boolean applied;
+                CharSequence op = line.field(0);
+                if (JOURNAL_ADD.contentEquals(op) || JOURNAL_UPDATE.contentEquals(op)) {
+                    applied = putRecord(records, line, 1);
+                } else if (JOURNAL_DELETE.contentEquals(op) && line.fieldCount() == 2 && line.intField(1) != CsvLineReader.INVALID) {
+                    records.remove((int) line.intField(1));
+                    applied = true;
+                } else {
+                    applied = false;
+                }
+                if (!applied) {
+                    reportInvalidLine(path, line);
+                }
+            }
+        }
+    }
+
+    // Fields are decoded straight from the reader's buffer: id;userId;date;time;amountMl;regurg;createdAt
+    static boolean putRecord(UserRecords records, CsvLineReader line, int offset) {
+        if (line.fieldCount() - offset != 7) {
+            return false;
+        }
+        long id = line.intField(offset);
+        long uId = line.longField(offset + 1);
+        int minute = Utils.epochMinute(Utils.parseEpochDay(line.field(offset + 2)), Utils.parseMinuteOfDay(line.field(offset + 3)));
+        long amountMl = line.intField(offset + 4);
+        byte regurg = Regurg.fromCode(line.field(offset + 5)).toByte();
+        int createdAt = Utils.parseEpochMinute(line.field(offset + 6));
+        if (id == CsvLineReader.INVALID || uId != records.getUserId() || amountMl == CsvLineReader.INVALID
+                || minute == Utils.INVALID || createdAt == Utils.INVALID) {
+            return false;
+        }
+        records.put((int) id, minute, (int) amountMl, regurg, createdAt);
+        return true;
+    }
+
+    private static void reportInvalidLine(Path path, CsvLineReader line) {
+        System.err.println("Invalid line " + line.lineNumber() + " at offset " + line.lineOffset() + " in " + path);
+    }
+
+    private void appendPut(UserRecords records, int slot) throws IOException {
+        long userId = records.getUserId();
+        records.setFrame(slot, frameCounts.getOrDefault(userId, 0));
+        flusher.write(userId, RecordFile.putFrame(records.get(slot)));
+        afterWrite(records);
+    }
+
+    private void afterWrite(UserRecords records) {
+        long userId = records.getUserId();
+        int frames = frameCounts.merge(userId, 1, Integer::sum);
+        int garbage = frames - records.size();
+        // Rewriting a file costs its live records, so wait until dead frames are a fair share of it
+        if (garbage >= COMPACT_THRESHOLD && garbage >= frames * COMPACT_GARBAGE_RATIO) {
+            scheduleCompaction(userId);
+        }
+    }
+
+    private void scheduleCompaction(long userId) {
+        if (compactionsPending.add(userId)) {
+            compactor.execute(() -> compact(userId));
+        }
+    }
+
+    private void compact(long userId) {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            UserRecords records = cache.peek(userId);
+            compactionsPending.remove(userId);
+            if (records == null) {
+                return;
+            }
+            RecordFile.write(getUserFile(userId), records, flusher.forceOnWrite());
+            flusher.discard(userId);
+            frameCounts.put(userId, records.size());
+        } catch (IOException e) {
+            System.err.println("Record file compaction failed for " + userId + ": " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int addRecord(long userId, String date, String time, int amountMl, String regurg) throws IOException {
+        int minute = Utils.toEpochMinute(date, time);
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            UserRecords userRecords = ensureUserLoaded(userId);
+            captureForCut(userRecords);
+            if (knownUsers.add(userId)) {
+                Files.createDirectories(DataLayout.userDir(userId));
+            }
+            int nextId = userRecords.nextId();
+            int slot = userRecords.put(nextId, minute, amountMl, Regurg.fromCode(regurg).toByte(), Utils.getCurrentCreatedAtMinute());
+            appendPut(userRecords, slot);
+            userRecords.publish();
+            cache.reweigh(userId);
+            return nextId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Readers take neither the user's lock nor the cache's while the user is cached with a published snapshot, which
+    // writers keep current before releasing the lock; the first read of a user, or one racing a write, takes the lock
+    // to copy it. A returned snapshot stays consistent while later writes go on
+    @Override
+    public UserSnapshot getSnapshot(long userId) throws IOException {
+        UserSnapshot snapshot = cache.published(userId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            return ensureUserLoaded(userId).snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Record> listRecords(long userId) throws IOException {
+        return getSnapshot(userId).listRecords();
+    }
+
+    @Override
+    public List<Record> listRecordsByDate(long userId, String date) throws IOException {
+        return getSnapshot(userId).listRecordsByDate(date);
+    }
+
+    @Override
+    public List<Record> listRecordsBetweenDates(long userId, String start, String end) throws IOException {
+        return getSnapshot(userId).listRecordsBetweenDates(start, end);
+    }
+
+    @Override
+    public List<Record> listRecordsBetweenDates(long userId, String start, String end, int offset, int limit) throws IOException {
+        return getSnapshot(userId).listRecordsBetweenDates(start, end, offset, limit);
+    }
+
+    @Override
+    public List<Record> listLatestRecords(long userId, int count) throws IOException {
+        return getSnapshot(userId).listLatest(count);
+    }
+
+    @Override
+    public Record getLastRecord(long userId) throws IOException {
+        return getSnapshot(userId).lastRecord();
+    }
+
+    @Override
+    public DailyStats getDailyStats(long userId, String date) throws IOException {
+        return getSnapshot(userId).getDailyStats(date);
+    }
+
+    @Override
+    public List<DailyStats> listDailyStats(long userId, String start, String end) throws IOException {
+        return getSnapshot(userId).listDailyStats(start, end);
+    }
+
+    @Override
+    public DailyStats summarizeBetweenDates(long userId, String start, String end) throws IOException {
+        return getSnapshot(userId).summarizeBetweenDates(start, end);
+    }
+
+    @Override
+    public boolean deleteById(int id, long userId) throws IOException {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            UserRecords userRecords = ensureUserLoaded(userId);
+            captureForCut(userRecords);
+            boolean removed = userRecords.remove(id);
+            if (removed) {
+                flusher.write(userId, RecordFile.deleteFrame(id));
+                afterWrite(userRecords);
+                userRecords.publish();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean updateRecord(int id, long userId, Optional<String> date, Optional<String> time, Optional<Integer> amount, Optional<String> regurg) throws IOException {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            UserRecords userRecords = ensureUserLoaded(userId);
+            int slot = userRecords.indexOf(id);
+            if (slot < 0) {
+                return false;
+            }
+            captureForCut(userRecords);
+            if (date.isPresent() || time.isPresent()) {
+                Record current = userRecords.get(slot);
+                userRecords.setMinute(slot, Utils.toEpochMinute(date.orElse(current.getDate()), time.orElse(current.getTime())));
+            }
+            amount.ifPresent(ml -> userRecords.setAmount(slot, ml));
+            regurg.ifPresent(r -> userRecords.setRegurg(slot, Regurg.fromCode(r).toByte()));
+            // Every field has a fixed width, so an edit can overwrite the record's frame instead of growing the file
+            if (!flusher.patch(userId, userRecords.frameOf(slot), frameCounts.getOrDefault(userId, 0), userRecords.get(slot))) {
+                appendPut(userRecords, slot);
+            }
+            userRecords.publish();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteAllForUser(long userId) throws IOException {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            UserRecords userRecords = ensureUserLoaded(userId);
+            captureForCut(userRecords);
+            flusher.discard(userId);
+            // An empty file keeps the id counter, so buttons on old messages never reach a record created later
+            UserRecords cleared = new UserRecords(userId);
+            cleared.reserveIds(userRecords.nextId());
+            if (knownUsers.contains(userId)) {
+                RecordFile.write(getUserFile(userId), cleared, flusher.forceOnWrite());
+            }
+            frameCounts.put(userId, 0);
+            cache.put(userId, cleared);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes every stripe only long enough to fix the cut; the backup itself then runs alongside writers
+    @Override
+    public BackupCut openBackupCut() throws IOException {
+        flusher.flush();
+        for (ReentrantLock lock : userLocks) {
+            lock.lock();
+        }
+        try {
+            if (backupCut != null) {
+                throw new IllegalStateException("A backup is already in progress");
+            }
+            backupCut = new BackupCut(this, RecordFile.nextSequence(), new ArrayList<>(knownUsers), flusher.pendingUsers());
+            return backupCut;
+        } finally {
+            for (ReentrantLock lock : userLocks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public long writeLatencyMicros() {
+        return flusher.writeLatencyMicros();
+    }
+
+    void closeBackupCut(BackupCut cut) {
+        if (backupCut == cut) {
+            backupCut = null;
+        }
+    }
+
+    private void captureForCut(UserRecords records) {
+        BackupCut cut = backupCut;
+        if (cut != null) {
+            cut.captureBefore(records);
+        }
+    }
+
+    // The user's state at the cut: kept by a writer if there was one, otherwise the live state, which has not moved since
+    BackupCut.Captured captureForBackup(BackupCut cut, long userId) throws IOException {
+        ReentrantLock lock = lockFor(userId);
+        lock.lock();
+        try {
+            BackupCut.Captured captured = cut.take(userId);
+            if (captured != null) {
+                return captured;
+            }
+            UserRecords records = cache.peek(userId);
+            Path path = getUserFile(userId);
+            if (records == null && !legacyUsers.contains(userId) && Files.exists(path)) {
+                // Read without caching, so a backup does not push active users out of the cache
+                records = new UserRecords(userId);
+                if (RecordFile.read(path, records) < 0) {
+                    throw new IOException("Unrecognised record file " + path);
+                }
+            } else if (records == null) {
+                records = loadUserRecords(userId);
+            }
+            return new BackupCut.Captured(records.snapshot(), records.nextId(), !flusher.hasPending(userId));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ChatProfile getProfile(long chatId) {
+        return profiles.get(chatId);
+    }
+
+    @Override
+    public void saveDeletePreference(long chatId, boolean deleteMessages) throws IOException {
+        profiles.saveDeleteMessages(chatId, deleteMessages);
+    }
+
+    @Override
+    public void saveTimeZonePreference(long chatId, String zone) throws IOException {
+        profiles.saveZone(chatId, ZoneId.of(zone));
+    }
+
+    @Override
+    public void saveHeaderMessageId(long chatId, int messageId) throws IOException {
+        profiles.saveHeaderMessageId(chatId, messageId);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,88 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/*
+ * Persistence used by the bot: feeding records, their daily aggregates and chat profiles.
+ * The implementation is chosen per deployment with -Dbabyfeedbot.storage=file|sql.
+ */
+public interface StorageEngine {
+
+    static StorageEngine create() {
+        String engine = System.getProperty("babyfeedbot.storage", "file").toLowerCase(Locale.ROOT);
+        return switch (engine) {
+            case "file" -> new Storage();
+            case "sql" -> new SqlStorage(System.getProperty("babyfeedbot.jdbc.url", SqlStorage.DEFAULT_URL),
+                    Integer.getInteger("babyfeedbot.jdbc.poolSize", 8));
+            default -> throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        };
+    }
+
+    void loadCacheIfNeeded() throws IOException;
+
+    void close() throws IOException;
+
+    int addRecord(long userId, String date, String time, int amountMl, String regurg) throws IOException;
+
+    // Consistent view of one user's whole history; screens that show records and totals together read one
+    UserSnapshot getSnapshot(long userId) throws IOException;
+
+    List<Record> listRecords(long userId) throws IOException;
+
+    List<Record> listRecordsByDate(long userId, String date) throws IOException;
+
+    List<Record> listRecordsBetweenDates(long userId, String start, String end) throws IOException;
+
+    List<Record> listRecordsBetweenDates(long userId, String start, String end, int offset, int limit) throws IOException;
+
+    List<Record> listLatestRecords(long userId, int count) throws IOException;
+
+    Record getLastRecord(long userId) throws IOException;
+
+    DailyStats getDailyStats(long userId, String date) throws IOException;
+
+    List<DailyStats> listDailyStats(long userId, String start, String end) throws IOException;
+
+    DailyStats summarizeBetweenDates(long userId, String start, String end) throws IOException;
+
+    boolean deleteById(int id, long userId) throws IOException;
+
+    boolean updateRecord(int id, long userId, Optional<String> date, Optional<String> time, Optional<Integer> amount, Optional<String> regurg) throws IOException;
+
+    void deleteAllForUser(long userId) throws IOException;
+
+    default boolean updateRegurg(int id, long userId, String newRegurg) throws IOException {
+        return updateRecord(id, userId, Optional.empty(), Optional.empty(), Optional.empty(), Optional.of(newRegurg));
+    }
+
+    default void exportCsv(long userId, Path target) throws IOException {
+        getSnapshot(userId).exportCsv(target);
+    }
+
+    // A consistent point across all users for backups, or null if the engine keeps no per-user files to archive
+    default BackupCut openBackupCut() throws IOException {
+        return null;
+    }
+
+    // Writes a consistent copy of the engine's database to target; false if the engine has no database to copy
+    default boolean backupDatabase(Path target) throws IOException {
+        return false;
+    }
+
+    // Recent latency of foreground writes, for background jobs to back off from; 0 if idle or not tracked
+    default long writeLatencyMicros() {
+        return 0;
+    }
+
+    ChatProfile getProfile(long chatId);
+
+    void saveDeletePreference(long chatId, boolean deleteMessages) throws IOException;
+
+    void saveTimeZonePreference(long chatId, String zone) throws IOException;
+
+    void saveHeaderMessageId(long chatId, int messageId) throws IOException;
+}
@@ -0,0 +1,201 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+
+public class UserCache {
+    // Roughly the fixed cost of a UserRecords instance, expressed in records
+    private static final int ENTRY_OVERHEAD = 8;
+    private final long maxWeight;
+    private final LongFunction<ReentrantLock> locks;
+    private final LongPredicate pinned;
+    private final LongConsumer onEvict;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // The same entries, for reads that do not take the lock
+    private final Map<Long, Entry> resident = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long weight;
+
+    private static final class Entry {
+        final UserRecords records;
+        int weight;
+        // Read without the lock since the last eviction pass, which the access order does not show
+        volatile boolean referenced;
+
+        Entry(UserRecords records) {
+            this.records = records;
+            this.weight = weigh(records);
+        }
+    }
+
+    UserCache(long maxWeight, LongFunction<ReentrantLock> locks, LongPredicate pinned, LongConsumer onEvict) {
+        this.maxWeight = maxWeight;
+        this.locks = locks;
+        this.pinned = pinned;
+        this.onEvict = onEvict;
+    }
+
+    UserRecords get(long userId) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(userId);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            reweigh(entry);
+            return entry.records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The user's published snapshot, without the lock and without moving the user in the access order; eviction passes
+    // over a user read this way once instead
+    UserSnapshot published(long userId) {
+        Entry entry = resident.get(userId);
+        UserSnapshot snapshot = entry == null ? null : entry.records.published();
+        if (snapshot != null) {
+            hits.incrementAndGet();
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+        }
+        return snapshot;
+    }
+
+    UserRecords peek(long userId) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(userId);
+            return entry == null ? null : entry.records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(long userId, UserRecords records) {
+        lock.lock();
+        try {
+            Entry entry = new Entry(records);
+            Entry previous = entries.put(userId, entry);
+            resident.put(userId, entry);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += weigh(records);
+            evictIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void reweigh(long userId) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                reweigh(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(long userId) {
+        lock.lock();
+        try {
+            Entry entry = entries.remove(userId);
+            if (entry != null) {
+                resident.remove(userId);
+                weight -= entry.weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getSize() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reweigh(Entry entry) {
+        int updated = weigh(entry.records);
+        if (updated != entry.weight) {
+            weight += updated - entry.weight;
+            entry.weight = updated;
+            evictIfNeeded();
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<Long, Entry> eldest = it.next();
+            long userId = eldest.getKey();
+            if (eldest.getValue().referenced) {
+                eldest.getValue().referenced = false;
+                continue;
+            }
+            // A writer holds the user's lock from loading the records until its frame is queued, so a locked user may
+            // have changes that are in memory only; it is skipped rather than waited for, as the cache lock is held
+            ReentrantLock userLock = locks.apply(userId);
+            if (userLock.isHeldByCurrentThread() || !userLock.tryLock()) {
+                continue;
+            }
+            try {
+                if (pinned.test(userId)) {
+                    continue;
+                }
+                it.remove();
+                resident.remove(userId);
+                weight -= eldest.getValue().weight;
+                evictions.incrementAndGet();
+                onEvict.accept(userId);
+            } finally {
+                userLock.unlock();
+            }
+        }
+    }
+
+    private static int weigh(UserRecords records) {
+        return records.size() + ENTRY_OVERHEAD;
+    }
+}
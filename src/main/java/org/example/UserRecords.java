@@ -0,0 +1,259 @@
+package org.example;
+
+import java.util.Arrays;
+
+class UserRecords {
+    private static final int INITIAL_CAPACITY = 16;
+    private final long userId;
+    private int size;
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] minutes = new int[INITIAL_CAPACITY]; // epoch minute of date + time
+    private short[] amounts = new short[INITIAL_CAPACITY];
+    private byte[] regurgs = new byte[INITIAL_CAPACITY];
+    private int[] createdAt = new int[INITIAL_CAPACITY]; // epoch minute
+    private int[] order = new int[INITIAL_CAPACITY]; // slots sorted by (minute, id)
+    private int[] frames = new int[INITIAL_CAPACITY]; // index of the record's latest put frame in its file, -1 if unknown
+    private final IntIntHashMap slots = new IntIntHashMap(); // id -> slot
+    private int nextId = 1; // never moves back, so a deleted id is not handed out again
+    private volatile UserSnapshot snapshot; // null once a change has made it stale
+    private boolean read; // a snapshot has been taken, so writers keep one published
+    private final DailyAggregates aggregates = new DailyAggregates();
+
+    UserRecords(long userId) {
+        this.userId = userId;
+    }
+
+    long getUserId() {
+        return userId;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int indexOf(int id) {
+        return slots.get(id);
+    }
+
+    int nextId() {
+        return nextId;
+    }
+
+    void reserveIds(int next) {
+        nextId = Math.max(nextId, next);
+    }
+
+    int put(int id, int minute, int amountMl, byte regurg, int created) {
+        int slot = indexOf(id);
+        if (slot < 0) {
+            if (size == ids.length) {
+                grow();
+            }
+            slot = size;
+            ids[slot] = id;
+            frames[slot] = -1;
+            minutes[slot] = minute;
+            slots.put(id, slot);
+            reserveIds(id + 1);
+            insertOrder(slot, size++);
+        } else {
+            setMinute(slot, minute);
+        }
+        amounts[slot] = (short) amountMl;
+        regurgs[slot] = regurg;
+        createdAt[slot] = created;
+        refreshDay(dayOf(minute));
+        return slot;
+    }
+
+    boolean remove(int id) {
+        int slot = indexOf(id);
+        if (slot < 0) {
+            return false;
+        }
+        int day = dayOf(minutes[slot]);
+        removeOrder(slot, size);
+        slots.remove(id);
+        int last = --size;
+        if (slot != last) {
+            // Move the last slot into the hole so slots stay dense; only its order and id entries need repointing
+            order[orderPosition(last, size)] = slot;
+            slots.put(ids[last], slot);
+            ids[slot] = ids[last];
+            minutes[slot] = minutes[last];
+            amounts[slot] = amounts[last];
+            regurgs[slot] = regurgs[last];
+            createdAt[slot] = createdAt[last];
+            frames[slot] = frames[last];
+        }
+        refreshDay(day);
+        return true;
+    }
+
+    int frameOf(int slot) {
+        return frames[slot];
+    }
+
+    void setFrame(int slot, int frame) {
+        frames[slot] = frame;
+    }
+
+    void setMinute(int slot, int minute) {
+        if (minutes[slot] == minute) {
+            return;
+        }
+        int previousDay = dayOf(minutes[slot]);
+        removeOrder(slot, size);
+        minutes[slot] = minute;
+        insertOrder(slot, size - 1);
+        refreshDay(previousDay);
+        refreshDay(dayOf(minute));
+    }
+
+    void setAmount(int slot, int amountMl) {
+        amounts[slot] = (short) amountMl;
+        refreshDay(dayOf(minutes[slot]));
+    }
+
+    void setRegurg(int slot, byte regurg) {
+        regurgs[slot] = regurg;
+        refreshDay(dayOf(minutes[slot]));
+    }
+
+    // The last snapshot taken if nothing has changed since, otherwise null; safe to call without the user's lock
+    UserSnapshot published() {
+        return snapshot;
+    }
+
+    // Copies the records only when a change has made the last snapshot stale; called under the user's lock, or by the
+    // only thread that can see the records
+    UserSnapshot snapshot() {
+        UserSnapshot current = snapshot;
+        if (current == null) {
+            current = copy();
+            snapshot = current;
+            read = true;
+        }
+        return current;
+    }
+
+    // Called by a writer before it releases the user's lock, so readers find the change published without taking the
+    // lock. Users nobody has read are left to copy on their first read, so writes alone never pay for a snapshot
+    void publish() {
+        if (read && snapshot == null) {
+            snapshot = copy();
+        }
+    }
+
+    private UserSnapshot copy() {
+        int[] sortedIds = new int[size];
+        int[] sortedMinutes = new int[size];
+        short[] sortedAmounts = new short[size];
+        byte[] sortedRegurgs = new byte[size];
+        int[] sortedCreatedAt = new int[size];
+        for (int i = 0; i < size; i++) {
+            int slot = order[i];
+            sortedIds[i] = ids[slot];
+            sortedMinutes[i] = minutes[slot];
+            sortedAmounts[i] = amounts[slot];
+            sortedRegurgs[i] = regurgs[slot];
+            sortedCreatedAt[i] = createdAt[slot];
+        }
+        return new UserSnapshot(userId, sortedIds, sortedMinutes, sortedAmounts, sortedRegurgs, sortedCreatedAt, aggregates.freeze());
+    }
+
+    Record get(int slot) {
+        return new Record(ids[slot], userId, minutes[slot], amounts[slot], regurgs[slot], createdAt[slot]);
+    }
+
+    // Position in chronological order of the first record at or after the given epoch minute
+    int lowerBound(int minute) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (minutes[order[mid]] < minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    int slotAt(int position) {
+        return order[position];
+    }
+
+    private static int dayOf(int minute) {
+        return Math.floorDiv(minute, Utils.MINUTES_PER_DAY);
+    }
+
+    // A day's records are contiguous in the order index, so its aggregate is recomputed from that short run. Every
+    // change of a record ends here, which also marks the last snapshot stale
+    private void refreshDay(int day) {
+        snapshot = null;
+        int from = lowerBound(day * Utils.MINUTES_PER_DAY);
+        int to = lowerBound((day + 1) * Utils.MINUTES_PER_DAY);
+        int total = 0;
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        int milk = 0;
+        byte milkCode = Regurg.MILK.toByte();
+        for (int i = from; i < to; i++) {
+            int slot = order[i];
+            total += amounts[slot];
+            min = Math.min(min, amounts[slot]);
+            max = Math.max(max, amounts[slot]);
+            if (regurgs[slot] == milkCode) {
+                milk++;
+            }
+        }
+        aggregates.set(day, to - from, total, min, max, milk);
+    }
+
+    private int compareKey(int slot, int minute, int id) {
+        int c = Integer.compare(minutes[slot], minute);
+        return c != 0 ? c : Integer.compare(ids[slot], id);
+    }
+
+    private int searchOrder(int minute, int id, int count) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(order[mid], minute, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int orderPosition(int slot, int count) {
+        return searchOrder(minutes[slot], ids[slot], count);
+    }
+
+    private void insertOrder(int slot, int count) {
+        int pos = searchOrder(minutes[slot], ids[slot], count);
+        System.arraycopy(order, pos, order, pos + 1, count - pos);
+        order[pos] = slot;
+    }
+
+    private void removeOrder(int slot, int count) {
+        int pos = orderPosition(slot, count);
+        System.arraycopy(order, pos + 1, order, pos, count - pos - 1);
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        minutes = Arrays.copyOf(minutes, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        regurgs = Arrays.copyOf(regurgs, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        order = Arrays.copyOf(order, capacity);
+        frames = Arrays.copyOf(frames, capacity);
+    }
+}
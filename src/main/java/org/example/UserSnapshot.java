@@ -0,0 +1,153 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/*
+ * Immutable, chronologically sorted view of one user's records and daily aggregates. A new snapshot is
+ * taken on the first read after a change, so readers hold on to one without locking and see a consistent state.
+ */
+public class UserSnapshot {
+    private final long userId;
+    private final int[] ids;
+    private final int[] minutes;
+    private final short[] amounts;
+    private final byte[] regurgs;
+    private final int[] createdAt;
+    private final DailyAggregates aggregates;
+
+    UserSnapshot(long userId, int[] ids, int[] minutes, short[] amounts, byte[] regurgs, int[] createdAt, DailyAggregates aggregates) {
+        this.userId = userId;
+        this.ids = ids;
+        this.minutes = minutes;
+        this.amounts = amounts;
+        this.regurgs = regurgs;
+        this.createdAt = createdAt;
+        this.aggregates = aggregates;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public Record get(int position) {
+        return new Record(ids[position], userId, minutes[position], amounts[position], regurgs[position], createdAt[position]);
+    }
+
+    public List<Record> listRecords() {
+        return new Slice(0, ids.length, false);
+    }
+
+    // Most recent record, or null if there are none
+    public Record lastRecord() {
+        return ids.length == 0 ? null : get(ids.length - 1);
+    }
+
+    // Up to count most recent records, newest first
+    public List<Record> listLatest(int count) {
+        return new Slice(Math.max(0, ids.length - Math.max(0, count)), ids.length, true);
+    }
+
+    // Whole history, newest first
+    public List<Record> listDescending() {
+        return new Slice(0, ids.length, true);
+    }
+
+    // One page of the chronological records between two dates (inclusive)
+    public List<Record> listRecordsBetweenDates(String start, String end, int offset, int limit) {
+        int from = lowerBound(Utils.toEpochDay(start) * Utils.MINUTES_PER_DAY);
+        int to = Math.max(from, lowerBound((Utils.toEpochDay(end) + 1) * Utils.MINUTES_PER_DAY));
+        int pageFrom = (int) Math.min(to, from + (long) Math.max(0, offset));
+        int pageTo = (int) Math.min(to, pageFrom + (long) Math.max(0, limit));
+        return new Slice(pageFrom, pageTo, false);
+    }
+
+    public List<Record> listRecordsByDate(String date) {
+        int day = Utils.toEpochDay(date);
+        return slice(day * Utils.MINUTES_PER_DAY, (day + 1) * Utils.MINUTES_PER_DAY);
+    }
+
+    public List<Record> listRecordsBetweenDates(String start, String end) {
+        return slice(Utils.toEpochDay(start) * Utils.MINUTES_PER_DAY, (Utils.toEpochDay(end) + 1) * Utils.MINUTES_PER_DAY);
+    }
+
+    public DailyStats getDailyStats(String date) {
+        return aggregates.get(Utils.toEpochDay(date));
+    }
+
+    public List<DailyStats> listDailyStats(String start, String end) {
+        return aggregates.range(Utils.toEpochDay(start), Utils.toEpochDay(end));
+    }
+
+    public DailyStats summarizeBetweenDates(String start, String end) {
+        return aggregates.total(Utils.toEpochDay(start), Utils.toEpochDay(end));
+    }
+
+    // One "id;userId;date;time;amountMl;regurg;createdAt" line per record, oldest first
+    public void exportCsv(Path target) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < size(); i++) {
+                Record r = get(i);
+                writer.write(r.getId() + ";" + r.getUserId() + ";" + r.getDate() + ";" + r.getTime() + ";"
+                        + r.getAmountMl() + ";" + r.getRegurg() + ";" + r.getCreatedAt());
+                writer.newLine();
+            }
+        }
+    }
+
+    // Position of the first record at or after the given epoch minute
+    int lowerBound(int minute) {
+        int lo = 0;
+        int hi = minutes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (minutes[mid] < minute) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private List<Record> slice(int fromMinute, int toMinute) {
+        int from = lowerBound(fromMinute);
+        return new Slice(from, Math.max(from, lowerBound(toMinute)), false);
+    }
+
+    // Positions [from, to) of the snapshot, optionally walked from the end
+    private class Slice extends AbstractList<Record> implements RandomAccess {
+        private final int from;
+        private final int to;
+        private final boolean reversed;
+
+        Slice(int from, int to, boolean reversed) {
+            this.from = from;
+            this.to = to;
+            this.reversed = reversed;
+        }
+
+        @Override
+        public Record get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+            }
+            return UserSnapshot.this.get(reversed ? to - 1 - index : from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -1,76 +1,216 @@
-package org.example;
-
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-
-public class Utils {
-    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd:MM:yyyy");
-    public static final DateTimeFormatter SHORT_DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy");
-    public static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
-    public static final DateTimeFormatter CREATED_AT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-    public static final ZoneId DEFAULT_ZONE = ZoneId.of("Europe/Moscow");
-
-    public static boolean isValidDate(String dateStr) {
-        String[] parts = dateStr.split(":");
-        if (parts.length == 2) {
-            dateStr += ":" + LocalDate.now(DEFAULT_ZONE).getYear();
-        } else if (parts.length != 3) {
-            return false;
-        }
-        try {
-            LocalDate.parse(dateStr, DATE_FORMATTER);
-            return true;
-        } catch (DateTimeParseException e) {
-            return false;
-        }
-    }
-
-    public static boolean isValidTime(String timeStr) {
-        try {
-            LocalTime.parse(timeStr, TIME_FORMATTER);
-            return true;
-        } catch (DateTimeParseException e) {
-            return false;
-        }
-    }
-
-    public static LocalDateTime parseToLocalDateTime(String date, String time) {
-        LocalDate localDate = LocalDate.parse(date, DATE_FORMATTER);
-        LocalTime localTime = LocalTime.parse(time, TIME_FORMATTER);
-        return LocalDateTime.of(localDate, localTime);
-    }
-
-    public static String getCurrentDate(ZoneId zoneId) {
-        return LocalDate.now(zoneId).format(DATE_FORMATTER);
-    }
-
-    public static String getCurrentTime(ZoneId zoneId) {
-        return LocalTime.now(zoneId).format(TIME_FORMATTER);
-    }
-
-    public static String getCurrentCreatedAt() {
-        return LocalDateTime.now(DEFAULT_ZONE).format(CREATED_AT_FORMATTER);
-    }
-
-    public static String regurgToDisplay(String regurg) {
-        return switch (regurg) {
-            case "air" -> "Воздушек";
-            case "milk" -> "срыгнули";
-            case "no" -> "не срыгнули";
-            default -> "не указано";
-        };
-    }
-
-    public static String formatDateRussian(String dateStr) {
-        String[] parts = dateStr.split(":");
-        int day = Integer.parseInt(parts[0]);
-        int month = Integer.parseInt(parts[1]);
-        int year = Integer.parseInt(parts[2]);
-        String[] months = {"", "января", "февраля", "марта", "апреля", "мая", "июня", "июля", "августа", "сентября", "октября", "ноября", "декабря"};
-        return day + " " + months[month] + " " + year + " года";
-    }
+package org.example;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+public class Utils {
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd:MM:yyyy");
+    public static final DateTimeFormatter SHORT_DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+    public static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm");
+    public static final DateTimeFormatter CREATED_AT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    public static final ZoneId DEFAULT_ZONE = ZoneId.of("Europe/Moscow");
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    // Returned by the parse* methods for malformed input; no valid epoch day or minute can take this value
+    public static final int INVALID = Integer.MIN_VALUE;
+    private static final String[] MONTHS_RUSSIAN = {"", "января", "февраля", "марта", "апреля", "мая", "июня",
+            "июля", "августа", "сентября", "октября", "ноября", "декабря"};
+
+    public static boolean isValidDate(String dateStr) {
+        if (dateStr.length() == 5) {
+            // "dd:MM" means the current year
+            dateStr += ":" + LocalDate.now(DEFAULT_ZONE).getYear();
+        }
+        return parseEpochDay(dateStr) != INVALID;
+    }
+
+    public static boolean isValidTime(String timeStr) {
+        return parseMinuteOfDay(timeStr) != INVALID;
+    }
+
+    public static LocalDateTime parseToLocalDateTime(String date, String time) {
+        return fromEpochMinute(toEpochMinute(date, time));
+    }
+
+    // "dd:MM:yyyy" -> days since 1970-01-01, or INVALID
+    public static int parseEpochDay(CharSequence s) {
+        if (s.length() != 10 || s.charAt(2) != ':' || s.charAt(5) != ':') {
+            return INVALID;
+        }
+        return epochDay(digits(s, 6, 4), digits(s, 3, 2), digits(s, 0, 2));
+    }
+
+    // "HH:mm" -> minutes since midnight, or INVALID
+    public static int parseMinuteOfDay(CharSequence s) {
+        if (s.length() != 5 || s.charAt(2) != ':') {
+            return INVALID;
+        }
+        return minuteOfDay(digits(s, 0, 2), digits(s, 3, 2));
+    }
+
+    // "yyyy-MM-dd HH:mm" -> epoch minute, or INVALID
+    public static int parseEpochMinute(CharSequence s) {
+        if (s.length() != 16 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != ' ' || s.charAt(13) != ':') {
+            return INVALID;
+        }
+        return epochMinute(epochDay(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2)), minuteOfDay(digits(s, 11, 2), digits(s, 14, 2)));
+    }
+
+    public static int toEpochDay(String date) {
+        int day = parseEpochDay(date);
+        if (day == INVALID) {
+            throw new DateTimeParseException("Invalid date", date, 0);
+        }
+        return day;
+    }
+
+    // Wall-clock date and time are stored as minutes since 1970-01-01T00:00 with no zone attached
+    public static int toEpochMinute(LocalDateTime dateTime) {
+        return (int) (dateTime.toEpochSecond(ZoneOffset.UTC) / 60);
+    }
+
+    public static int toEpochMinute(String date, String time) {
+        int minute = epochMinute(parseEpochDay(date), parseMinuteOfDay(time));
+        if (minute == INVALID) {
+            throw new DateTimeParseException("Invalid date or time", date + " " + time, 0);
+        }
+        return minute;
+    }
+
+    public static LocalDateTime fromEpochMinute(int epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60L, 0, ZoneOffset.UTC);
+    }
+
+    public static String formatDate(int epochMinute) {
+        int civil = civilFromDays(Math.floorDiv(epochMinute, MINUTES_PER_DAY));
+        char[] out = new char[10];
+        putDigits(out, 0, civil & 0x1F, 2);
+        out[2] = ':';
+        putDigits(out, 3, (civil >>> 5) & 0xF, 2);
+        out[5] = ':';
+        putDigits(out, 6, civil >> 9, 4);
+        return new String(out);
+    }
+
+    public static String formatTime(int epochMinute) {
+        int minuteOfDay = Math.floorMod(epochMinute, MINUTES_PER_DAY);
+        char[] out = new char[5];
+        putDigits(out, 0, minuteOfDay / 60, 2);
+        out[2] = ':';
+        putDigits(out, 3, minuteOfDay % 60, 2);
+        return new String(out);
+    }
+
+    public static String formatCreatedAt(int epochMinute) {
+        int civil = civilFromDays(Math.floorDiv(epochMinute, MINUTES_PER_DAY));
+        int minuteOfDay = Math.floorMod(epochMinute, MINUTES_PER_DAY);
+        char[] out = new char[16];
+        putDigits(out, 0, civil >> 9, 4);
+        out[4] = '-';
+        putDigits(out, 5, (civil >>> 5) & 0xF, 2);
+        out[7] = '-';
+        putDigits(out, 8, civil & 0x1F, 2);
+        out[10] = ' ';
+        putDigits(out, 11, minuteOfDay / 60, 2);
+        out[13] = ':';
+        putDigits(out, 14, minuteOfDay % 60, 2);
+        return new String(out);
+    }
+
+    public static String getCurrentDate(ZoneId zoneId) {
+        return LocalDate.now(zoneId).format(DATE_FORMATTER);
+    }
+
+    public static String getCurrentTime(ZoneId zoneId) {
+        return LocalTime.now(zoneId).format(TIME_FORMATTER);
+    }
+
+    public static int getCurrentCreatedAtMinute() {
+        return toEpochMinute(LocalDateTime.now(DEFAULT_ZONE));
+    }
+
+    public static String regurgToDisplay(String regurg) {
+        return switch (regurg) {
+            case "air" -> "Воздушек";
+            case "milk" -> "срыгнули";
+            case "no" -> "не срыгнули";
+            default -> "не указано";
+        };
+    }
+
+    public static String formatDateRussian(String dateStr) {
+        int civil = civilFromDays(toEpochDay(dateStr));
+        return (civil & 0x1F) + " " + MONTHS_RUSSIAN[(civil >>> 5) & 0xF] + " " + (civil >> 9) + " года";
+    }
+
+    // Parses a run of ASCII digits; any other character makes the result negative
+    private static int digits(CharSequence s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static int epochDay(int year, int month, int day) {
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID;
+        }
+        // Days from civil date (proleptic Gregorian), counting years from March so February is last
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // Inverse of epochDay, packed as year << 9 | month << 5 | day
+    private static int civilFromDays(int epochDay) {
+        int z = epochDay + 719468;
+        int era = Math.floorDiv(z, 146097);
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year << 9 | month << 5 | day;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    private static int minuteOfDay(int hour, int minute) {
+        return hour < 0 || hour > 23 || minute < 0 || minute > 59 ? INVALID : hour * 60 + minute;
+    }
+
+    // Combines a parsed epoch day and minute of day; INVALID if either part is
+    public static int epochMinute(int epochDay, int minuteOfDay) {
+        if (epochDay == INVALID || minuteOfDay == INVALID) {
+            return INVALID;
+        }
+        long minute = (long) epochDay * MINUTES_PER_DAY + minuteOfDay;
+        return minute <= Integer.MIN_VALUE || minute > Integer.MAX_VALUE ? INVALID : (int) minute;
+    }
+
+    private static void putDigits(char[] out, int from, int value, int count) {
+        for (int i = from + count - 1; i >= from; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A full daily archive of the file engine, every user changed since the last one: compression on one thread
+ * against one thread per core, both without the byte rate cap, and the same run under the default cap of
+ * 32 MiB/s. The backup settings are read once per JVM, so each variant runs in a fork of its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ArchiveBenchmark {
+    private static final int RECORDS_PER_FILE = 50;
+    private static final long FIRST_USER = 1_000_000;
+    private static final String UNTHROTTLED = "-Dbabyfeedbot.backup.bytesPerSecond=0";
+
+    @Param({"100000"})
+    int users;
+
+    private Storage storage;
+
+    @Setup
+    public void open() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        TestFiles.writeUserFiles(FIRST_USER, users, RECORDS_PER_FILE);
+        storage = new Storage();
+        storage.loadCacheIfNeeded();
+    }
+
+    // Without the day's manifest every user is compressed again
+    @Setup(Level.Iteration)
+    public void clearArchive() throws IOException {
+        TestFiles.deleteRecursively(Paths.get("archive"));
+        BackupService.createArchiveDir();
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        storage.close();
+        TestFiles.deleteRecursively(DataLayout.root());
+        TestFiles.deleteRecursively(Paths.get("archive"));
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {UNTHROTTLED, "-Dbabyfeedbot.backup.threads=1"})
+    public BackupProgress oneThread() throws IOException {
+        return archive();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = UNTHROTTLED)
+    public BackupProgress threadPerCore() throws IOException {
+        return archive();
+    }
+
+    @Benchmark
+    public BackupProgress threadPerCoreThrottled() throws IOException {
+        return archive();
+    }
+
+    private BackupProgress archive() throws IOException {
+        BackupService.archiveNow(storage);
+        return BackupService.progress();
+    }
+}
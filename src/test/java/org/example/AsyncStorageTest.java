@@ -0,0 +1,54 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AsyncStorageTest {
+    private static final long USER = 300;
+
+    // Slow enough that close is called while most of the user's calls are still chained behind the first
+    private static final class SlowStorage extends Storage {
+        @Override
+        public int addRecord(long userId, String date, String time, int amountMl, String regurg) throws IOException {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.addRecord(userId, date, time, amountMl, regurg);
+        }
+    }
+
+    @BeforeEach
+    @AfterEach
+    void clean() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    @Test
+    void closeRunsTheCallsChainedBehindOthers() throws IOException {
+        AsyncStorage storage = new AsyncStorage(new SlowStorage());
+        storage.loadCacheIfNeeded();
+        List<CompletableFuture<Integer>> adds = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            adds.add(storage.addRecordAsync(USER, "01:03:2024", String.format("%02d:00", 6 + i), 100, "no"));
+        }
+        storage.close();
+
+        for (int i = 0; i < adds.size(); i++) {
+            assertEquals(i + 1, (int) adds.get(i).join());
+        }
+        Storage reloaded = new Storage();
+        reloaded.loadCacheIfNeeded();
+        assertEquals(adds.size(), reloaded.listRecords(USER).size());
+        reloaded.close();
+    }
+}
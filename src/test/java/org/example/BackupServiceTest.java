@@ -0,0 +1,304 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Daily archives of the file engine, run in the test working directory's data/ and archive/
+class BackupServiceTest {
+    private static final long FIRST_USER = 100;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final Path ARCHIVE = Paths.get("archive");
+
+    // Fails the capture of chosen users, as an unreadable file would, and can stop a run as a restart would
+    private static final class TestStorage extends Storage {
+        final Set<Long> failing = ConcurrentHashMap.newKeySet();
+        // Members a run appends before it is cancelled; 0 lets runs finish
+        volatile int cancelAfter;
+        // Run by the first capture of a run, as a write arriving while the backup is under way
+        volatile Runnable duringRun;
+        private final AtomicInteger captures = new AtomicInteger();
+        private volatile long doneBefore;
+
+        @Override
+        BackupCut.Captured captureForBackup(BackupCut cut, long userId) throws IOException {
+            if (failing.contains(userId)) {
+                throw new IOException("Cannot read user " + userId);
+            }
+            int capture = captures.incrementAndGet();
+            if (capture == 1) {
+                // Members carried from an interrupted run are counted as done before the first capture
+                doneBefore = BackupService.progress().getFilesDone();
+                Runnable write = duringRun;
+                if (write != null) {
+                    write.run();
+                }
+            }
+            if (cancelAfter > 0 && capture == cancelAfter + 1) {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (BackupService.progress().getFilesDone() < doneBefore + cancelAfter && System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                }
+                BackupService.cancel();
+            }
+            return super.captureForBackup(cut, userId);
+        }
+
+        void nextRun() {
+            captures.set(0);
+        }
+    }
+
+    private TestStorage storage;
+
+    @TempDir
+    Path restored;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clean();
+        BackupService.createArchiveDir();
+        storage = new TestStorage();
+        storage.loadCacheIfNeeded();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        storage.close();
+        clean();
+    }
+
+    @Test
+    void failedMemberKeepsItsEntryFromTheLatestManifest() throws IOException {
+        for (long userId = FIRST_USER; userId < FIRST_USER + 3; userId++) {
+            addFeedings(userId, 5);
+        }
+        BackupService.archiveNow(storage);
+        moveToYesterday();
+        long failingUser = FIRST_USER + 1;
+        String fileName = fileName(failingUser);
+        addFeedings(failingUser, 1);
+        storage.failing.add(failingUser);
+
+        BackupService.archiveNow(storage);
+        Path manifest = BackupService.manifestFor(today());
+        Map<String, BackupService.ManifestEntry> entries = BackupService.readManifest(manifest);
+        assertEquals(3, entries.size());
+        BackupService.ManifestEntry carried = entries.get(fileName);
+        assertNotNull(carried);
+        assertEquals("bundle_" + yesterday() + ".gz", carried.archivedAs);
+        assertEquals(List.of(fileName), BackupService.readFailed(manifest));
+        assertEquals(0, RestoreTool.verify(manifest));
+    }
+
+    @Test
+    void sameDayRerunLeavesTheDaysBundleInPlaceUntilItsManifestIsReplaced() throws IOException {
+        for (long userId = FIRST_USER; userId < FIRST_USER + 3; userId++) {
+            addFeedings(userId, 4);
+        }
+        BackupService.archiveNow(storage);
+        Path first = ARCHIVE.resolve("bundle_" + today() + ".gz");
+        byte[] firstContent = Files.readAllBytes(first);
+
+        addFeedings(FIRST_USER, 1);
+        BackupService.archiveNow(storage);
+        Path manifest = BackupService.manifestFor(today());
+        Map<String, BackupService.ManifestEntry> entries = BackupService.readManifest(manifest);
+        assertEquals("bundle_" + today() + "_2.gz", entries.get(fileName(FIRST_USER)).archivedAs);
+        assertEquals(first.getFileName().toString(), entries.get(fileName(FIRST_USER + 1)).archivedAs);
+        assertArrayEquals(firstContent, Files.readAllBytes(first));
+        assertEquals(0, RestoreTool.verify(manifest));
+
+        // Once every user is archived again, the earlier bundles of the day are no longer referenced
+        for (long userId = FIRST_USER; userId < FIRST_USER + 3; userId++) {
+            addFeedings(userId, 1);
+        }
+        BackupService.archiveNow(storage);
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(ARCHIVE.resolve("bundle_" + today() + "_2.gz")));
+        assertTrue(Files.exists(ARCHIVE.resolve("bundle_" + today() + "_3.gz")));
+        assertEquals(0, RestoreTool.verify(manifest));
+    }
+
+    @Test
+    void runInterruptedTwiceIsFinishedWithTheMembersOfBoth() throws IOException {
+        int users = 12;
+        for (long userId = FIRST_USER; userId < FIRST_USER + users; userId++) {
+            addFeedings(userId, 3 + (int) userId % 4);
+        }
+        storage.cancelAfter = 3;
+        assertThrows(IOException.class, () -> BackupService.archiveNow(storage));
+        storage.nextRun();
+        assertThrows(IOException.class, () -> BackupService.archiveNow(storage));
+
+        // Each progress line keeps the cut its member was taken at, so members of the first run are not restamped
+        List<String> progress = Files.readAllLines(ARCHIVE.resolve("progress_" + today() + ".txt"), StandardCharsets.UTF_8);
+        assertTrue(progress.size() > 3);
+        assertEquals(2, progress.stream().map(line -> line.substring(line.lastIndexOf(';') + 1)).distinct().count());
+
+        storage.cancelAfter = 0;
+        storage.nextRun();
+        BackupService.archiveNow(storage);
+        Path manifest = BackupService.manifestFor(today());
+        assertEquals(users, BackupService.readManifest(manifest).size());
+        assertFalse(Files.exists(ARCHIVE.resolve("progress_" + today() + ".txt")));
+        assertEquals(0, RestoreTool.verify(manifest));
+    }
+
+    @Test
+    void archiveVerifiesAndRestoresEveryUser() throws IOException {
+        int users = 8;
+        Map<Long, List<Record>> expected = new HashMap<>();
+        for (long userId = FIRST_USER; userId < FIRST_USER + users; userId++) {
+            addFeedings(userId, 4 + (int) userId % 3);
+            // Edits and deletes leave superseded frames in the file; the restored file has only the live records
+            int first = storage.listRecords(userId).get(0).getId();
+            assertTrue(storage.updateRegurg(first, userId, "milk"));
+            assertTrue(storage.deleteById(first + 1, userId));
+            expected.put(userId, sorted(storage.listRecords(userId)));
+        }
+        BackupService.archiveNow(storage);
+        Path manifest = BackupService.manifestFor(today());
+        assertEquals(0, RestoreTool.verify(manifest));
+
+        assertEquals(0, RestoreTool.restore(manifest, restored, null));
+        for (long userId = FIRST_USER; userId < FIRST_USER + users; userId++) {
+            assertEquals(expected.get(userId), restoredRecords(userId), "records of user " + userId);
+        }
+    }
+
+    @Test
+    void resumedRunRestoresTheStateAtItsCut() throws IOException {
+        int users = 10;
+        for (long userId = FIRST_USER; userId < FIRST_USER + users; userId++) {
+            addFeedings(userId, 3 + (int) userId % 4);
+        }
+        storage.cancelAfter = 4;
+        assertThrows(IOException.class, () -> BackupService.archiveNow(storage));
+        assertTrue(Files.exists(ARCHIVE.resolve("progress_" + today() + ".txt")));
+
+        // One user changes between the runs and another while the resumed run is under way, after its cut
+        long changedBetween = FIRST_USER;
+        long changedDuring = FIRST_USER + users - 1;
+        addFeedings(changedBetween, 1);
+        Map<Long, List<Record>> expected = new HashMap<>();
+        for (long userId = FIRST_USER; userId < FIRST_USER + users; userId++) {
+            expected.put(userId, sorted(storage.listRecords(userId)));
+        }
+        storage.duringRun = () -> {
+            try {
+                storage.addRecord(changedDuring, "02:03:2024", "09:00", 150, "no");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        storage.cancelAfter = 0;
+        storage.nextRun();
+        BackupService.archiveNow(storage);
+        Path manifest = BackupService.manifestFor(today());
+        assertEquals(0, RestoreTool.verify(manifest));
+
+        assertEquals(0, RestoreTool.restore(manifest, restored, Set.of(changedBetween, changedDuring, FIRST_USER + 1)));
+        for (long userId : List.of(changedBetween, changedDuring, FIRST_USER + 1)) {
+            assertEquals(expected.get(userId), restoredRecords(userId), "records of user " + userId);
+        }
+        assertFalse(Files.exists(DataLayout.userFile(restored, FIRST_USER + 2, RecordFile.EXTENSION)));
+        assertEquals(expected.get(changedDuring).size() + 1, storage.listRecords(changedDuring).size());
+    }
+
+    @Test
+    void groupChatWithANegativeIdSurvivesARestartAndIsArchived() throws IOException {
+        long group = -1001234567890L;
+        addFeedings(group, 3);
+        storage.close();
+        storage = new TestStorage();
+        storage.loadCacheIfNeeded();
+
+        assertEquals(3, storage.listRecords(group).size());
+        // The id counter came back from the file, so a new record does not reuse an id already on disk
+        assertEquals(4, storage.addRecord(group, "02:03:2024", "07:00", 120, "no"));
+        List<Record> expected = sorted(storage.listRecords(group));
+        BackupService.archiveNow(storage);
+        assertTrue(BackupService.readManifest(BackupService.manifestFor(today())).containsKey(fileName(group)));
+
+        assertEquals(0, RestoreTool.run(new String[]{"restore", restored.toString(), String.valueOf(group)}));
+        assertEquals(expected, restoredRecords(group));
+    }
+
+    private List<Record> restoredRecords(long userId) throws IOException {
+        UserRecords records = new UserRecords(userId);
+        assertTrue(RecordFile.read(DataLayout.userFile(restored, userId, RecordFile.EXTENSION), records) >= 0);
+        List<Record> result = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            result.add(records.get(records.slotAt(i)));
+        }
+        return sorted(result);
+    }
+
+    private static List<Record> sorted(List<Record> records) {
+        List<Record> result = new ArrayList<>(records);
+        result.sort(Comparator.comparingInt(Record::getId));
+        return result;
+    }
+
+    private void addFeedings(long userId, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            storage.addRecord(userId, "01:03:2024", String.format("%02d:%02d", 6 + i, i), 90 + i * 10, "no");
+        }
+    }
+
+    private static String fileName(long userId) {
+        return DataLayout.userFile(userId, RecordFile.EXTENSION).getFileName().toString();
+    }
+
+    // Turns today's archive into yesterday's, so the next run has an earlier manifest to build on
+    private static void moveToYesterday() throws IOException {
+        String today = today();
+        String yesterday = yesterday();
+        Files.move(ARCHIVE.resolve("bundle_" + today + ".gz"), ARCHIVE.resolve("bundle_" + yesterday + ".gz"));
+        Path manifest = ARCHIVE.resolve("manifest_" + today + ".txt");
+        String content = Files.readString(manifest, StandardCharsets.UTF_8).replace("bundle_" + today, "bundle_" + yesterday);
+        Files.writeString(ARCHIVE.resolve("manifest_" + yesterday + ".txt"), content, StandardCharsets.UTF_8);
+        Files.delete(manifest);
+    }
+
+    private static String today() {
+        return LocalDate.now(ZoneId.of("Europe/Moscow")).format(DATE_FORMAT);
+    }
+
+    private static String yesterday() {
+        return LocalDate.now(ZoneId.of("Europe/Moscow")).minusDays(1).format(DATE_FORMAT);
+    }
+
+    private static void clean() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        TestFiles.deleteRecursively(ARCHIVE);
+    }
+}
@@ -0,0 +1,133 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Loading a 10k-row legacy CSV file into UserRecords: CsvLineReader with in-place field decoding, as
+ * Storage converts legacy users now, against the readLine/split loop it replaced. The cold variants run
+ * one load per fresh JVM, which is what converting a user at first access costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvLoadBenchmark {
+    private static final long USER_ID = 42;
+    private static final int ROWS = 10_000;
+    private Path file;
+
+    @Setup
+    public void writeFile() throws IOException {
+        file = Files.createTempFile("records", ".csv");
+        int firstDay = Utils.toEpochDay("01:01:2024");
+        String[] regurgs = {"no", "air", "milk"};
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int id = 1; id <= ROWS; id++) {
+                int minute = Utils.epochMinute(firstDay + id / 8, id % 8 * 180 + id % 60);
+                writer.write(id + ";" + USER_ID + ";" + Utils.formatDate(minute) + ";" + Utils.formatTime(minute) + ";"
+                        + (60 + id % 120) + ";" + regurgs[id % 3] + ";" + Utils.formatCreatedAt(minute + 5));
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public UserRecords lineReader() throws IOException {
+        return loadWithLineReader(file);
+    }
+
+    @Benchmark
+    public UserRecords readLineSplit() throws IOException {
+        return loadWithSplit(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public UserRecords lineReaderCold() throws IOException {
+        return loadWithLineReader(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public UserRecords readLineSplitCold() throws IOException {
+        return loadWithSplit(file);
+    }
+
+    private static UserRecords loadWithLineReader(Path path) throws IOException {
+        UserRecords records = new UserRecords(USER_ID);
+        try (CsvLineReader line = new CsvLineReader(path)) {
+            while (line.nextLine()) {
+                if (!line.isBlank() && !Storage.putRecord(records, line, 0)) {
+                    throw new IllegalStateException("Invalid line " + line.lineNumber());
+                }
+            }
+        }
+        return records;
+    }
+
+    // Storage.loadUserRecords before CsvLineReader
+    private static UserRecords loadWithSplit(Path path) throws IOException {
+        UserRecords records = new UserRecords(USER_ID);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!putRecord(records, line.split(";", -1)) && !line.isEmpty()) {
+                    throw new IllegalStateException("Invalid line: " + line);
+                }
+            }
+        }
+        return records;
+    }
+
+    private static boolean putRecord(UserRecords records, String[] parts) {
+        if (parts.length != 7) {
+            return false;
+        }
+        try {
+            int id = Integer.parseInt(parts[0]);
+            long uId = Long.parseLong(parts[1]);
+            int minute = Utils.epochMinute(Utils.parseEpochDay(parts[2]), Utils.parseMinuteOfDay(parts[3]));
+            int amountMl = Integer.parseInt(parts[4]);
+            byte regurg = Regurg.fromCode(parts[5]).toByte();
+            int createdAt = Utils.parseEpochMinute(parts[6]);
+            if (uId != records.getUserId() || minute == Utils.INVALID || createdAt == Utils.INVALID) {
+                return false;
+            }
+            records.put(id, minute, amountMl, regurg, createdAt);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DailyAggregatesTest {
+    private static final byte NO = Regurg.NO.toByte();
+    private static final byte MILK = Regurg.MILK.toByte();
+
+    @Test
+    void keepsDaysSortedAndDropsEmptyOnes() {
+        DailyAggregates aggregates = new DailyAggregates();
+        aggregates.set(20, 2, 200, 90, 110, 1);
+        aggregates.set(10, 1, 50, 50, 50, 0);
+        aggregates.set(30, 3, 300, 80, 120, 2);
+        aggregates.set(20, 0, 0, 0, 0, 0);
+
+        List<DailyStats> days = aggregates.range(0, 100);
+        assertEquals(2, days.size());
+        assertEquals(10, days.get(0).getEpochDay());
+        assertEquals(30, days.get(1).getEpochDay());
+        assertNull(aggregates.get(20));
+
+        DailyStats total = aggregates.total(0, 100);
+        assertEquals(4, total.getCount());
+        assertEquals(350, total.getTotalMl());
+        assertEquals(50, total.getMinMl());
+        assertEquals(120, total.getMaxMl());
+        assertEquals(2, total.getMilkCount());
+    }
+
+    @Test
+    void frozenCopyIgnoresLaterWrites() {
+        DailyAggregates aggregates = new DailyAggregates();
+        aggregates.set(5, 1, 100, 100, 100, 0);
+        DailyAggregates frozen = aggregates.freeze();
+        aggregates.set(5, 2, 250, 100, 150, 1);
+        aggregates.set(6, 1, 70, 70, 70, 0);
+
+        assertEquals(1, frozen.get(5).getCount());
+        assertNull(frozen.get(6));
+        assertEquals(100, frozen.total(0, 10).getTotalMl());
+        assertEquals(320, aggregates.total(0, 10).getTotalMl());
+    }
+
+    @Test
+    void movingARecordToAnotherDayUpdatesBothDays() {
+        UserRecords records = new UserRecords(1);
+        int day = Utils.toEpochDay("01:03:2024");
+        records.put(1, minute(day, 8, 0), 100, NO, 0);
+        records.put(2, minute(day, 12, 0), 150, MILK, 0);
+        records.put(3, minute(day, 16, 0), 120, NO, 0);
+
+        records.setMinute(records.indexOf(2), minute(day + 1, 1, 30));
+
+        DailyStats first = stats(records, "01:03:2024");
+        assertEquals(2, first.getCount());
+        assertEquals(220, first.getTotalMl());
+        assertEquals(100, first.getMinMl());
+        assertEquals(120, first.getMaxMl());
+        assertEquals(0, first.getMilkCount());
+        DailyStats second = stats(records, "02:03:2024");
+        assertEquals(1, second.getCount());
+        assertEquals(150, second.getTotalMl());
+        assertEquals(1, second.getMilkCount());
+
+        // Moving within the day changes only the order, not the totals
+        records.setMinute(records.indexOf(3), minute(day, 6, 0));
+        assertEquals(220, stats(records, "01:03:2024").getTotalMl());
+        assertEquals(List.of(3, 1), ids(records, "01:03:2024"));
+    }
+
+    @Test
+    void removingRecordsUpdatesAndFinallyDropsTheDay() {
+        UserRecords records = new UserRecords(1);
+        int day = Utils.toEpochDay("01:03:2024");
+        records.put(1, minute(day, 8, 0), 100, MILK, 0);
+        records.put(2, minute(day, 12, 0), 150, NO, 0);
+        records.put(3, minute(day + 1, 9, 0), 90, NO, 0);
+
+        records.remove(1);
+        DailyStats remaining = stats(records, "01:03:2024");
+        assertEquals(1, remaining.getCount());
+        assertEquals(150, remaining.getMinMl());
+        assertEquals(0, remaining.getMilkCount());
+
+        records.remove(2);
+        assertNull(stats(records, "01:03:2024"));
+        assertEquals(1, summary(records).getCount());
+        assertEquals(90, summary(records).getTotalMl());
+
+        // Field edits after a removal moved the last slot into the hole still land on the right record and day
+        records.setAmount(records.indexOf(3), 95);
+        records.setRegurg(records.indexOf(3), MILK);
+        DailyStats moved = stats(records, "02:03:2024");
+        assertEquals(95, moved.getTotalMl());
+        assertEquals(1, moved.getMilkCount());
+    }
+
+    private static int minute(int epochDay, int hour, int minute) {
+        return Utils.epochMinute(epochDay, hour * 60 + minute);
+    }
+
+    private static DailyStats stats(UserRecords records, String date) {
+        return records.snapshot().getDailyStats(date);
+    }
+
+    private static DailyStats summary(UserRecords records) {
+        return records.snapshot().summarizeBetweenDates("01:01:2024", "31:12:2024");
+    }
+
+    private static List<Integer> ids(UserRecords records, String date) {
+        return records.snapshot().listRecordsByDate(date).stream().map(Record::getId).toList();
+    }
+}
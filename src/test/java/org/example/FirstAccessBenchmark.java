@@ -0,0 +1,83 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The first request of a user with 10k feedings after a restart, in a fresh JVM: starting the file engine and
+ * listing the records. A user still on the legacy CSV file is converted to a record file on the way; one already
+ * on a record file only has it mapped and read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class FirstAccessBenchmark {
+    private static final long USER_ID = 42;
+    private static final int ROWS = 10_000;
+
+    @Param({"csv", "bin"})
+    String format;
+
+    private Storage storage;
+
+    // Conversion replaces the CSV file, so the user's file is written again for every run
+    @Setup(Level.Iteration)
+    public void writeUser() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        if (format.equals("bin")) {
+            TestFiles.writeUserFiles(USER_ID, 1, ROWS);
+            return;
+        }
+        Path file = DataLayout.userFile(USER_ID, ".csv");
+        Files.createDirectories(file.getParent());
+        int firstDay = Utils.toEpochDay("01:01:2024");
+        String[] regurgs = {"no", "air", "milk"};
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int id = 1; id <= ROWS; id++) {
+                int minute = Utils.epochMinute(firstDay + id / 8, id % 8 * 180 + id % 60);
+                writer.write(id + ";" + USER_ID + ";" + Utils.formatDate(minute) + ";" + Utils.formatTime(minute) + ";"
+                        + (60 + id % 120) + ";" + regurgs[id % 3] + ";" + Utils.formatCreatedAt(minute + 5));
+                writer.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        storage.close();
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    @Benchmark
+    public List<Record> firstRequest() throws IOException {
+        storage = new Storage();
+        storage.loadCacheIfNeeded();
+        List<Record> records = storage.listRecords(USER_ID);
+        if (records.size() != ROWS) {
+            throw new IllegalStateException("Loaded " + records.size() + " records instead of " + ROWS);
+        }
+        return records;
+    }
+}
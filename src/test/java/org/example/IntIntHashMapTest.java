@@ -0,0 +1,101 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntIntHashMapTest {
+
+    @Test
+    void putGetAndOverwrite() {
+        IntIntHashMap map = new IntIntHashMap();
+        map.put(7, 70);
+        map.put(-3, 30);
+        map.put(7, 71);
+
+        assertEquals(2, map.size());
+        assertEquals(71, map.get(7));
+        assertEquals(30, map.get(-3));
+        assertEquals(-1, map.get(8));
+    }
+
+    @Test
+    void deletedKeyCanBeReinserted() {
+        IntIntHashMap map = new IntIntHashMap();
+        for (int key = 1; key <= 10; key++) {
+            map.put(key, key * 10);
+        }
+        assertTrue(map.remove(4));
+        assertFalse(map.remove(4));
+        assertEquals(-1, map.get(4));
+        assertEquals(9, map.size());
+
+        map.put(4, 44);
+        assertEquals(44, map.get(4));
+        assertEquals(10, map.size());
+        for (int key = 1; key <= 10; key++) {
+            assertEquals(key == 4 ? 44 : key * 10, map.get(key), "key " + key);
+        }
+    }
+
+    @Test
+    void removalInsideAProbeRunKeepsLaterKeysReachable() {
+        // 1000 keys in a table that never grows past 2048 slots put many keys into shared probe runs
+        IntIntHashMap map = new IntIntHashMap(1000);
+        for (int key = 0; key < 1000; key++) {
+            map.put(key, key);
+        }
+        for (int key = 0; key < 1000; key += 3) {
+            assertTrue(map.remove(key));
+        }
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(key % 3 == 0 ? -1 : key, map.get(key), "key " + key);
+        }
+        for (int key = 0; key < 1000; key += 3) {
+            map.put(key, key + 1);
+        }
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(key % 3 == 0 ? key + 1 : key, map.get(key), "key " + key);
+        }
+    }
+
+    @Test
+    void growsPastTheInitialCapacity() {
+        IntIntHashMap map = new IntIntHashMap();
+        for (int key = 0; key < 10_000; key++) {
+            map.put(key * 31, key);
+        }
+        assertEquals(10_000, map.size());
+        for (int key = 0; key < 10_000; key++) {
+            assertEquals(key, map.get(key * 31));
+        }
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        IntIntHashMap map = new IntIntHashMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        // A small key range makes removes and reinserts of the same keys frequent
+        for (int op = 0; op < 200_000; op++) {
+            int key = random.nextInt(512);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else {
+                int value = random.nextInt(Integer.MAX_VALUE);
+                expected.put(key, value);
+                map.put(key, value);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 512; key++) {
+            assertEquals((int) expected.getOrDefault(key, -1), map.get(key), "key " + key);
+        }
+    }
+}
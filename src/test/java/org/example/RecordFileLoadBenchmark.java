@@ -0,0 +1,86 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Loading one user's record file into memory, as the first access after a restart does. A synced file is
+ * verified up to its end; an unsynced one, as left by a crash, has to be checked frame by frame. The cold
+ * variants run one load per fresh JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordFileLoadBenchmark {
+    private static final long USER_ID = 42;
+
+    @Param({"1000", "10000"})
+    int records;
+
+    @Param({"true", "false"})
+    boolean synced;
+
+    private Path file;
+
+    @Setup
+    public void writeFile() throws IOException {
+        file = Files.createTempFile("records", RecordFile.EXTENSION);
+        UserRecords user = new UserRecords(USER_ID);
+        for (int id = 1; id <= records; id++) {
+            user.put(id, id * 90, 60 + id % 120, Regurg.NO.toByte(), id * 90 + 5);
+        }
+        RecordFile.write(file, user, false);
+    }
+
+    // Loading verifies the file and moves its verified offset, so it is put back before every load
+    @Setup(Level.Invocation)
+    public void resetVerifiedOffset() throws IOException {
+        RecordFile.setVerifiedOffset(file, synced ? Files.size(file) : RecordFile.HEADER_SIZE);
+    }
+
+    @TearDown
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public UserRecords load() throws IOException {
+        return read();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public UserRecords coldLoad() throws IOException {
+        return read();
+    }
+
+    private UserRecords read() throws IOException {
+        UserRecords user = new UserRecords(USER_ID);
+        if (RecordFile.read(file, user) != records) {
+            throw new IllegalStateException("Unexpected frame count in " + file);
+        }
+        return user;
+    }
+}
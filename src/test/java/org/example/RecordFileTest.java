@@ -0,0 +1,314 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordFileTest {
+    private static final long USER = 5;
+    private static final int VERIFIED_OFFSET_POSITION = 20;
+    private static final byte NO = Regurg.NO.toByte();
+    private static final byte MILK = Regurg.MILK.toByte();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackWhatWasWrittenAndAppended() throws IOException {
+        Path file = file();
+        UserRecords written = records(3);
+        RecordFile.write(file, written, true);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, MILK, 4_001)), false);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(2, USER, 2_500, 125, NO, 2_001)), false);
+        RecordFile.append(file, USER, RecordFile.deleteFrame(1), true);
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(6, RecordFile.read(file, read));
+        assertEquals(List.of(new Record(2, USER, 2_500, 125, NO, 2_001), new Record(3, USER, 3_000, 130, NO, 3_001),
+                new Record(4, USER, 4_000, 140, MILK, 4_001)), all(read));
+        assertEquals(5, read.nextId());
+        // The latest put frame of each record is known, so an edit can find it
+        assertEquals(4, read.frameOf(read.indexOf(2)));
+        assertEquals(Files.size(file), verifiedOffset(file));
+    }
+
+    @Test
+    void compactedFileKeepsTheIdCounter() throws IOException {
+        Path file = file();
+        UserRecords written = records(3);
+        written.remove(3);
+        RecordFile.write(file, written, true);
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(2, RecordFile.read(file, read));
+        assertEquals(4, read.nextId());
+    }
+
+    @Test
+    void tornAppendIsCutOffOnLoad() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(3), true);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, NO, 4_001)), false);
+        long intact = Files.size(file);
+        appendBytes(file, halfFrame(5));
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(4, RecordFile.read(file, read));
+        assertEquals(4, read.size());
+        assertEquals(intact, Files.size(file));
+        assertEquals(intact, verifiedOffset(file));
+    }
+
+    @Test
+    void recoveryChecksOnlyTheUnsyncedTail() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(3), true);
+        long synced = Files.size(file);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, NO, 4_001)), false);
+        long intact = Files.size(file);
+        appendBytes(file, halfFrame(5));
+        // Damage inside the synced part is not looked at; that part was checked before it was vouched for
+        corrupt(file, RecordFile.HEADER_SIZE + 8);
+
+        assertEquals(synced, verifiedOffset(file));
+        assertTrue(RecordFile.recover(file));
+        assertEquals(intact, Files.size(file));
+        assertEquals(intact, verifiedOffset(file));
+    }
+
+    @Test
+    void loadTrustsTheVerifiedPart() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(3), true);
+        // Damage no fsync could have left behind is not looked for, so loading does not checksum synced frames
+        corrupt(file, RecordFile.HEADER_SIZE + RecordFile.FRAME_SIZE + 2);
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(3, RecordFile.read(file, read));
+        assertEquals(List.of(1, 2, 3), ids(read));
+    }
+
+    @Test
+    void unsyncedFrameIsPatchedOnlyWithForce() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(2), true);
+        long verified = Files.size(file);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(3, USER, 3_000, 130, NO, 3_001)), false);
+        long size = Files.size(file);
+
+        Record edited = new Record(3, USER, 3_000, 135, MILK, 3_001);
+        assertFalse(RecordFile.patch(file, 2, edited, false));
+        assertTrue(RecordFile.patch(file, 2, edited, true));
+        // The copy is gone again and the header does not vouch for the frame it never checked
+        assertEquals(size, Files.size(file));
+        assertEquals(verified, verifiedOffset(file));
+        UserRecords read = new UserRecords(USER);
+        RecordFile.read(file, read);
+        assertEquals(edited, read.get(read.indexOf(3)));
+    }
+
+    @Test
+    void tornPatchOfAnUnsyncedFrameIsRecoveredFromTheCopy() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(2), true);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(3, USER, 3_000, 130, NO, 3_001)), false);
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, NO, 4_001)), false);
+        long frame = RecordFile.HEADER_SIZE + 2L * RecordFile.FRAME_SIZE;
+        Record edited = new Record(3, USER, 3_000, 135, MILK, 3_001);
+        // An intact frame follows the torn one, so recovery skips it as a torn patch rather than cutting the file
+        RecordFile.append(file, USER, RecordFile.putFrame(edited), false);
+        corrupt(file, frame + 2);
+
+        UserRecords read = new UserRecords(USER);
+        RecordFile.read(file, read);
+        assertEquals(List.of(1, 2, 3, 4), ids(read));
+        assertEquals(edited, read.get(read.indexOf(3)));
+    }
+
+    @Test
+    void syncedFrameIsPatchedOnlyWithForce() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(3), true);
+        long size = Files.size(file);
+        Record edited = new Record(2, USER, 2_000, 115, MILK, 2_001);
+
+        assertFalse(RecordFile.patch(file, 1, edited, false));
+        assertTrue(RecordFile.patch(file, 1, edited, true));
+        // The guarding copy is gone again and the frame is still vouched for
+        assertEquals(size, Files.size(file));
+        assertEquals(size, verifiedOffset(file));
+        UserRecords read = new UserRecords(USER);
+        assertEquals(3, RecordFile.read(file, read));
+        assertEquals(edited, read.get(read.indexOf(2)));
+        assertEquals(1, read.frameOf(read.indexOf(2)));
+    }
+
+    @Test
+    void tornPatchIsRecoveredFromTheCopy() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(3), true);
+        long frame = RecordFile.HEADER_SIZE + RecordFile.FRAME_SIZE;
+        Record edited = new Record(2, USER, 2_000, 115, MILK, 2_001);
+        // The state a crash in the middle of the overwrite leaves: copy synced, verified offset moved back, frame torn
+        RecordFile.append(file, USER, RecordFile.putFrame(edited), false);
+        RecordFile.setVerifiedOffset(file, frame);
+        corrupt(file, frame + 2);
+
+        UserRecords read = new UserRecords(USER);
+        RecordFile.read(file, read);
+        assertEquals(List.of(1, 2, 3), ids(read));
+        assertEquals(edited, read.get(read.indexOf(2)));
+        assertEquals(Files.size(file), verifiedOffset(file));
+    }
+
+    @Test
+    void tornCopyLeavesTheRecordAsItWas() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(3), true);
+        long size = Files.size(file);
+        // A crash while the copy is written: the frame itself is untouched and still verified
+        appendBytes(file, halfFrame(2));
+
+        UserRecords read = new UserRecords(USER);
+        RecordFile.read(file, read);
+        assertEquals(all(records(3)), all(read));
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    void frameWithAnOlderSequenceEndsTheValidPart() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(2), true);
+        ByteBuffer stale = RecordFile.putFrame(new Record(3, USER, 3_000, 130, NO, 3_001));
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, NO, 4_001)), false);
+        // An intact frame written earlier can only follow a later one if the file was torn and reused
+        RecordFile.append(file, USER, stale, false);
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(3, RecordFile.read(file, read));
+        assertEquals(List.of(1, 2, 4), ids(read));
+    }
+
+    @Test
+    void appendAfterRecoveryFollowsAFileAheadOfTheClock() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(2), true);
+        // Written before a restart with the clock set years ahead; recovery finds nothing to check
+        stampSequence(file, System.currentTimeMillis() * 1000 + 1_000_000_000_000_000L);
+        assertTrue(RecordFile.recover(file));
+        RecordFile.append(file, USER, RecordFile.putFrame(new Record(3, USER, 3_000, 130, NO, 3_001)), false);
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(3, RecordFile.read(file, read));
+        assertEquals(List.of(1, 2, 3), ids(read));
+    }
+
+    @Test
+    void version1FileIsConvertedOnLoad() throws IOException {
+        Path file = file();
+        ByteBuffer v1 = ByteBuffer.allocate(RecordFile.HEADER_SIZE + 3 * 16).order(ByteOrder.LITTLE_ENDIAN);
+        v1.putInt(RecordFile.MAGIC).putShort((short) 1).putShort((short) 16).putLong(USER).putInt(9).putLong(0).putInt(0);
+        v1.put(RecordFile.OP_PUT).put(NO).putShort((short) 100).putInt(1).putInt(1_000).putInt(1_001);
+        v1.put(RecordFile.OP_PUT).put(MILK).putShort((short) 120).putInt(2).putInt(2_000).putInt(2_001);
+        v1.put(RecordFile.OP_DELETE).put((byte) 0).putShort((short) 0).putInt(1).putInt(0).putInt(0);
+        Files.write(file, v1.array());
+
+        UserRecords read = new UserRecords(USER);
+        assertEquals(1, RecordFile.read(file, read));
+        assertEquals(List.of(new Record(2, USER, 2_000, 120, MILK, 2_001)), all(read));
+        assertEquals(9, read.nextId());
+
+        UserRecords reread = new UserRecords(USER);
+        assertEquals(1, RecordFile.read(file, reread));
+        assertEquals(RecordFile.HEADER_SIZE + RecordFile.FRAME_SIZE, Files.size(file));
+        assertEquals(9, reread.nextId());
+    }
+
+    @Test
+    void fileOfAnotherUserIsRejected() throws IOException {
+        Path file = file();
+        RecordFile.write(file, records(1), true);
+        assertEquals(-1, RecordFile.read(file, new UserRecords(USER + 1)));
+    }
+
+    private Path file() {
+        return dir.resolve(USER + RecordFile.EXTENSION);
+    }
+
+    // Records 1..count, record i at epoch minute i * 1000
+    private static UserRecords records(int count) {
+        UserRecords records = new UserRecords(USER);
+        for (int id = 1; id <= count; id++) {
+            records.put(id, id * 1_000, 90 + id * 10, NO, id * 1_000 + 1);
+        }
+        return records;
+    }
+
+    private static List<Record> all(UserRecords records) {
+        List<Record> result = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            result.add(records.get(records.slotAt(i)));
+        }
+        return result;
+    }
+
+    private static List<Integer> ids(UserRecords records) {
+        return all(records).stream().map(Record::getId).toList();
+    }
+
+    private static byte[] halfFrame(int id) {
+        ByteBuffer frame = RecordFile.putFrame(new Record(id, USER, id * 1_000, 100, NO, 0));
+        byte[] half = new byte[RecordFile.FRAME_SIZE / 2];
+        frame.get(half);
+        return half;
+    }
+
+    static long verifiedOffset(Path file) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.read(value, VERIFIED_OFFSET_POSITION);
+        }
+        return value.getLong(0);
+    }
+
+    static void appendBytes(Path file, byte[] bytes) throws IOException {
+        Files.write(file, bytes, StandardOpenOption.APPEND);
+    }
+
+    // Gives every frame the sequence number, as if the file had been written with the clock elsewhere
+    private static void stampSequence(Path file, long sequence) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32C crc = new CRC32C();
+        for (int frame = RecordFile.HEADER_SIZE; frame < buffer.limit(); frame += RecordFile.FRAME_SIZE) {
+            buffer.putLong(frame + 16, sequence);
+            crc.reset();
+            crc.update(buffer.array(), frame, RecordFile.FRAME_SIZE - Integer.BYTES);
+            buffer.putInt(frame + RecordFile.FRAME_SIZE - Integer.BYTES, (int) crc.getValue());
+        }
+        Files.write(file, buffer.array());
+    }
+
+    // Flips one byte, as a torn or bit-rotted write would
+    static void corrupt(Path file, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, position);
+            value.put(0, (byte) ~value.get(0)).rewind();
+            channel.write(value, position);
+        }
+    }
+}
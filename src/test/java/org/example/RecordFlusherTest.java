@@ -0,0 +1,116 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordFlusherTest {
+    private static final long USER = 7;
+    private static final byte NO = Regurg.NO.toByte();
+    private static final byte MILK = Regurg.MILK.toByte();
+
+    @TempDir
+    Path dir;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Long> rewrites = new ArrayList<>();
+    private RecordFlusher flusher;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (flusher != null) {
+            flusher.close();
+        }
+    }
+
+    @Test
+    void patchOfAFrameInTheFileWaitsForTheFlush() throws IOException {
+        flusher = flusher(true, RecordFlusher.FsyncPolicy.INTERVAL);
+        RecordFile.write(file(), records(3), true);
+        Record edited = new Record(2, USER, 2_000, 115, MILK, 2_001);
+
+        assertTrue(flusher.patch(USER, 1, 3, edited));
+        assertTrue(flusher.hasPending(USER));
+        assertEquals(110, read().get(read().indexOf(2)).getAmountMl());
+
+        flusher.flush();
+        UserRecords read = read();
+        assertEquals(edited, read.get(read.indexOf(2)));
+        assertEquals(RecordFile.HEADER_SIZE + 3 * RecordFile.FRAME_SIZE, Files.size(file()));
+    }
+
+    @Test
+    void patchOfABufferedFrameRewritesTheBuffer() throws IOException {
+        flusher = flusher(true, RecordFlusher.FsyncPolicy.INTERVAL);
+        RecordFile.write(file(), records(3), true);
+        flusher.write(USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, NO, 4_001)));
+        Record edited = new Record(4, USER, 4_000, 145, MILK, 4_001);
+
+        assertTrue(flusher.patch(USER, 3, 4, edited));
+        flusher.flush();
+        UserRecords read = read();
+        assertEquals(edited, read.get(read.indexOf(4)));
+        assertEquals(RecordFile.HEADER_SIZE + 4 * RecordFile.FRAME_SIZE, Files.size(file()));
+    }
+
+    @Test
+    void syncedFrameWithoutFsyncsAsksForARewrite() throws IOException {
+        flusher = flusher(true, RecordFlusher.FsyncPolicy.NEVER);
+        RecordFile.write(file(), records(3), true);
+
+        assertTrue(flusher.patch(USER, 1, 3, new Record(2, USER, 2_000, 115, MILK, 2_001)));
+        flusher.flush();
+        assertEquals(List.of(USER), rewrites);
+        assertEquals(110, read().get(read().indexOf(2)).getAmountMl());
+    }
+
+    @Test
+    void syncVouchesForWhatWasWritten() throws IOException {
+        flusher = flusher(false, RecordFlusher.FsyncPolicy.INTERVAL);
+        RecordFile.write(file(), records(3), false);
+        flusher.write(USER, RecordFile.putFrame(new Record(4, USER, 4_000, 140, NO, 4_001)));
+        // Without an fsync behind every write the frame is not patched, and the edit is appended instead
+        Record edited = new Record(4, USER, 4_000, 145, MILK, 4_001);
+        assertFalse(flusher.patch(USER, 3, 4, edited));
+        flusher.write(USER, RecordFile.putFrame(edited));
+
+        flusher.close();
+        flusher = null;
+        assertEquals(Files.size(file()), RecordFileTest.verifiedOffset(file()));
+    }
+
+    private RecordFlusher flusher(boolean writeBehind, RecordFlusher.FsyncPolicy policy) {
+        // Long intervals keep the background thread out of the way; the tests flush and sync by hand
+        return new RecordFlusher(writeBehind, policy, 60_000, 1_000, 60_000, userId -> lock, userId -> file(), rewrites::add);
+    }
+
+    private Path file() {
+        return dir.resolve(USER + RecordFile.EXTENSION);
+    }
+
+    private UserRecords read() throws IOException {
+        UserRecords records = new UserRecords(USER);
+        RecordFile.read(file(), records);
+        return records;
+    }
+
+    // Records 1..count, record i at epoch minute i * 1000
+    private static UserRecords records(int count) {
+        UserRecords records = new UserRecords(USER);
+        for (int id = 1; id <= count; id++) {
+            records.put(id, id * 1_000, 90 + id * 10, NO, id * 1_000 + 1);
+        }
+        return records;
+    }
+}
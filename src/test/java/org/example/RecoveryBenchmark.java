@@ -0,0 +1,89 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Startup of the file engine after a kill -9: every user file has a synced, verified part and, unless
+ * unsyncedFrames is 0, a tail of frames written after the last fsync; every tenth file also ends in a
+ * half-written frame. Only the tails are checked, so the time should follow the number of files and the tail
+ * length, not the records already verified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RecoveryBenchmark {
+    private static final int RECORDS_PER_FILE = 200;
+    private static final long FIRST_USER = 1_000_000;
+
+    @Param({"100000"})
+    int files;
+
+    @Param({"0", "8"})
+    int unsyncedFrames;
+
+    private Storage storage;
+
+    // Each iteration needs the crashed state again, since recovery repairs it
+    @Setup(Level.Iteration)
+    public void crash() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        UserRecords records = new UserRecords(0);
+        for (int id = 1; id <= RECORDS_PER_FILE; id++) {
+            records.put(id, id * 90, 100, Regurg.NO.toByte(), id * 90);
+        }
+        for (long userId = FIRST_USER; userId < FIRST_USER + files; userId++) {
+            Path file = DataLayout.userFile(userId, RecordFile.EXTENSION);
+            Files.createDirectories(file.getParent());
+            UserRecords user = new UserRecords(userId);
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                user.put(record.getId(), record.getEpochMinute(), record.getAmountMl(), record.getRegurgValue().toByte(), record.getCreatedAtMinute());
+            }
+            // Written without an fsync per file, which would only slow down the setup, but marked as synced
+            RecordFile.write(file, user, false);
+            RecordFile.setVerifiedOffset(file, Files.size(file));
+            for (int i = 0; i < unsyncedFrames; i++) {
+                RecordFile.append(file, userId, RecordFile.putFrame(new Record(i + 1, userId, i * 90, 120, Regurg.MILK.toByte(), i * 90)), false);
+            }
+            if (unsyncedFrames > 0 && userId % 10 == 0) {
+                RecordFileTest.appendBytes(file, new byte[RecordFile.FRAME_SIZE / 2]);
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        if (storage != null) {
+            storage.close();
+            storage = null;
+        }
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    @Benchmark
+    public Storage startAfterCrash() throws IOException {
+        storage = new Storage();
+        storage.loadCacheIfNeeded();
+        return storage;
+    }
+}
@@ -0,0 +1,83 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * RestoreTool over one day's archive of every user: verify reads each member back and checks its frames, restore
+ * also replays it and writes the compacted file into an empty data directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Dbabyfeedbot.backup.bytesPerSecond=0")
+public class RestoreBenchmark {
+    private static final int RECORDS_PER_FILE = 50;
+    private static final long FIRST_USER = 1_000_000;
+    private static final Path RESTORED = Paths.get("restored");
+
+    @Param({"100000"})
+    int users;
+
+    private Path manifest;
+
+    @Setup
+    public void archive() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        TestFiles.deleteRecursively(Paths.get("archive"));
+        TestFiles.writeUserFiles(FIRST_USER, users, RECORDS_PER_FILE);
+        BackupService.createArchiveDir();
+        Storage storage = new Storage();
+        storage.loadCacheIfNeeded();
+        BackupService.archiveNow(storage);
+        storage.close();
+        manifest = BackupService.latestManifest();
+    }
+
+    @Setup(Level.Iteration)
+    public void clearRestored() throws IOException {
+        TestFiles.deleteRecursively(RESTORED);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        TestFiles.deleteRecursively(Paths.get("archive"));
+        TestFiles.deleteRecursively(RESTORED);
+    }
+
+    @Benchmark
+    public int verify() throws IOException {
+        return check(RestoreTool.verify(manifest));
+    }
+
+    @Benchmark
+    public int restore() throws IOException {
+        return check(RestoreTool.restore(manifest, RESTORED, null));
+    }
+
+    private static int check(int exitCode) {
+        if (exitCode != 0) {
+            throw new IllegalStateException("RestoreTool exited with " + exitCode);
+        }
+        return exitCode;
+    }
+}
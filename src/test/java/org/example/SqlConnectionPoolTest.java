@@ -0,0 +1,109 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlConnectionPoolTest {
+    // A named in-memory database lives as long as one connection to it is open
+    private final SqlConnectionPool pool = new SqlConnectionPool("jdbc:h2:mem:pool-test;DB_CLOSE_DELAY=-1", 1, 500);
+
+    @AfterEach
+    void close() {
+        pool.close();
+    }
+
+    @Test
+    void releasedConnectionIsReused() throws SQLException {
+        Connection first = pool.borrow();
+        pool.release(first, false);
+        assertSame(first, pool.borrow());
+    }
+
+    @Test
+    void waitingBorrowerGetsTheReleasedConnection() throws Exception {
+        Connection held = pool.borrow();
+        CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrow();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+
+        pool.release(held, false);
+        assertSame(held, waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void exhaustedPoolTimesOut() throws SQLException {
+        Connection held = pool.borrow();
+        long started = System.nanoTime();
+        SQLException e = assertThrows(SQLException.class, pool::borrow);
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(e.getMessage().contains("No database connection available"), e.getMessage());
+
+        // The failed borrow did not use up the slot
+        pool.release(held, false);
+        assertSame(held, pool.borrow());
+    }
+
+    @Test
+    void droppedConnectionLetsAWaitingBorrowerOpenANewOne() throws Exception {
+        Connection held = pool.borrow();
+        CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrow();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        pool.release(held, true);
+
+        Connection fresh = waiting.get(5, TimeUnit.SECONDS);
+        assertNotSame(held, fresh);
+        assertFalse(fresh.isClosed());
+    }
+
+    @Test
+    void brokenConnectionIsReplaced() throws SQLException {
+        Connection broken = pool.borrow();
+        pool.release(broken, true);
+        assertTrue(broken.isClosed());
+
+        Connection fresh = pool.borrow();
+        assertNotSame(broken, fresh);
+        assertFalse(fresh.isClosed());
+    }
+
+    @Test
+    void openTransactionIsRolledBackOnRelease() throws SQLException {
+        Connection connection = pool.borrow();
+        connection.setAutoCommit(false);
+        pool.release(connection, false);
+        assertTrue(pool.borrow().getAutoCommit());
+    }
+
+    @Test
+    void closedPoolRefusesBorrows() throws SQLException {
+        Connection idle = pool.borrow();
+        pool.release(idle, false);
+        pool.close();
+
+        assertTrue(idle.isClosed());
+        assertThrows(SQLException.class, pool::borrow);
+    }
+}
@@ -0,0 +1,175 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlStorageTest {
+    private static final long USER = 7;
+
+    @TempDir
+    Path dir;
+    private String url;
+    private SqlStorage storage;
+
+    @BeforeEach
+    void open() throws IOException {
+        url = "jdbc:h2:" + dir.resolve("babyfeedbot").toAbsolutePath();
+        storage = new SqlStorage(url, 2);
+        storage.loadCacheIfNeeded();
+    }
+
+    @AfterEach
+    void close() {
+        storage.close();
+    }
+
+    @Test
+    void listsRecordsAndAggregatesByDay() throws IOException {
+        storage.addRecord(USER, "01:03:2024", "12:00", 150, "milk");
+        storage.addRecord(USER, "01:03:2024", "08:00", 100, "no");
+        storage.addRecord(USER, "02:03:2024", "09:30", 90, "air");
+        storage.addRecord(USER + 1, "01:03:2024", "10:00", 500, "no");
+
+        assertEquals(List.of(2, 1), ids(storage.listRecordsByDate(USER, "01:03:2024")));
+        assertEquals(List.of(2, 1, 3), ids(storage.listRecords(USER)));
+        assertEquals(List.of(1, 3), ids(storage.listRecordsBetweenDates(USER, "01:03:2024", "02:03:2024", 1, 2)));
+        assertEquals(List.of(3, 1), ids(storage.listLatestRecords(USER, 2)));
+        assertEquals(3, storage.getLastRecord(USER).getId());
+
+        DailyStats day = storage.getDailyStats(USER, "01:03:2024");
+        assertEquals(2, day.getCount());
+        assertEquals(250, day.getTotalMl());
+        assertEquals(100, day.getMinMl());
+        assertEquals(150, day.getMaxMl());
+        assertEquals(1, day.getMilkCount());
+        assertNull(storage.getDailyStats(USER, "03:03:2024"));
+
+        List<DailyStats> days = storage.listDailyStats(USER, "01:03:2024", "31:03:2024");
+        assertEquals(2, days.size());
+        assertEquals(90, days.get(1).getTotalMl());
+        assertEquals(340, storage.summarizeBetweenDates(USER, "01:03:2024", "31:03:2024").getTotalMl());
+
+        UserSnapshot snapshot = storage.getSnapshot(USER);
+        assertEquals(3, snapshot.size());
+        assertEquals(250, snapshot.getDailyStats("01:03:2024").getTotalMl());
+    }
+
+    @Test
+    void idsAreNotReusedAfterDeletes() throws IOException {
+        storage.addRecord(USER, "01:03:2024", "08:00", 100, "no");
+        int second = storage.addRecord(USER, "01:03:2024", "09:00", 100, "no");
+        assertTrue(storage.deleteById(second, USER));
+        assertFalse(storage.deleteById(second, USER));
+        assertEquals(3, storage.addRecord(USER, "01:03:2024", "10:00", 100, "no"));
+
+        storage.deleteAllForUser(USER);
+        assertTrue(storage.listRecords(USER).isEmpty());
+        assertEquals(4, storage.addRecord(USER, "01:03:2024", "11:00", 100, "no"));
+    }
+
+    @Test
+    void updateMovesARecordToAnotherDay() throws IOException {
+        int id = storage.addRecord(USER, "01:03:2024", "08:00", 100, "no");
+        assertTrue(storage.updateRecord(id, USER, Optional.of("02:03:2024"), Optional.empty(), Optional.of(120), Optional.empty()));
+        assertTrue(storage.updateRegurg(id, USER, "milk"));
+        assertFalse(storage.updateRegurg(id + 1, USER, "milk"));
+
+        assertNull(storage.getDailyStats(USER, "01:03:2024"));
+        Record moved = storage.getLastRecord(USER);
+        assertEquals("02:03:2024", moved.getDate());
+        assertEquals("08:00", moved.getTime());
+        assertEquals(120, moved.getAmountMl());
+        assertEquals(Regurg.MILK, moved.getRegurgValue());
+    }
+
+    @Test
+    void dataAndProfilesSurviveAReopen() throws IOException {
+        storage.addRecord(USER, "01:03:2024", "08:00", 100, "no");
+        storage.saveDeletePreference(USER, true);
+        storage.saveTimeZonePreference(USER, "Asia/Yekaterinburg");
+        storage.saveHeaderMessageId(USER, 77);
+        storage.close();
+
+        storage = new SqlStorage(url, 2);
+        storage.loadCacheIfNeeded();
+        assertEquals(1, storage.listRecords(USER).size());
+        // The id counter is a table of its own, so it survives the reopen as well
+        assertEquals(2, storage.addRecord(USER, "01:03:2024", "09:00", 100, "no"));
+        ChatProfile profile = storage.getProfile(USER);
+        assertTrue(profile.shouldDeleteMessages());
+        assertEquals(ZoneId.of("Asia/Yekaterinburg"), profile.getZone());
+        assertEquals(77, (int) profile.getHeaderMessageId());
+        assertNull(storage.getProfile(USER + 1).getDeleteMessages());
+    }
+
+    @Test
+    void concurrentWritersGetDistinctIdsFromTheCounter() throws Exception {
+        long group = -100_500;
+        int threads = 4;
+        int perThread = 24;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    List<Integer> ids = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        // A pool of two connections is shared by four writers to two users, one of them a group chat
+                        long userId = i % 2 == 0 ? USER : group;
+                        ids.add(storage.addRecord(userId, "01:03:2024", String.format("%02d:%02d", thread, i), 100, "no"));
+                    }
+                    return ids;
+                }));
+            }
+            for (Future<List<Integer>> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        for (long userId : List.of(USER, group)) {
+            List<Integer> ids = ids(storage.listRecords(userId));
+            assertEquals(threads * perThread / 2, ids.size());
+            assertEquals(ids.size(), new HashSet<>(ids).size(), "ids of " + userId);
+            assertEquals(ids.size(), (int) ids.stream().max(Integer::compare).orElseThrow());
+        }
+    }
+
+    @Test
+    void backupCopiesTheDatabaseFile() throws IOException {
+        storage.addRecord(USER, "01:03:2024", "08:00", 100, "no");
+        Path copy = dir.resolve("copy.zip");
+
+        assertTrue(storage.backupDatabase(copy));
+        assertTrue(Files.size(copy) > 0);
+        try (ZipFile zip = new ZipFile(copy.toFile())) {
+            assertTrue(zip.stream().anyMatch(entry -> entry.getName().endsWith(".mv.db")));
+        }
+    }
+
+    private static List<Integer> ids(List<Record> records) {
+        return records.stream().map(Record::getId).toList();
+    }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The same workload against the file engine and the H2 engine, to choose one per deployment: adding and
+ * editing a feeding, and the reads behind the day, history and statistics screens. Each user starts with
+ * two months of feedings, eight a day.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageEngineBenchmark {
+    private static final int USERS = 100;
+    private static final int DAYS = 60;
+    private static final int FEEDS_PER_DAY = 8;
+    private static final long FIRST_USER = 1_000;
+
+    @Param({"file", "sql"})
+    String engine;
+
+    private StorageEngine storage;
+    private final String[] dates = new String[DAYS];
+    private int next;
+
+    @Setup
+    public void open() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        storage = engine.equals("file") ? new Storage()
+                : new SqlStorage("jdbc:h2:" + DataLayout.root().resolve("benchmark").toAbsolutePath(), 8);
+        storage.loadCacheIfNeeded();
+        int firstDay = Utils.toEpochDay("01:01:2024");
+        for (int day = 0; day < DAYS; day++) {
+            dates[day] = Utils.formatDate((firstDay + day) * Utils.MINUTES_PER_DAY);
+        }
+        for (long userId = FIRST_USER; userId < FIRST_USER + USERS; userId++) {
+            for (int day = 0; day < DAYS; day++) {
+                for (int feed = 0; feed < FEEDS_PER_DAY; feed++) {
+                    storage.addRecord(userId, dates[day], String.format("%02d:15", feed * 3), 80 + feed * 5, feed % 3 == 0 ? "milk" : "no");
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        storage.close();
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    // Users and days are visited in turn, so the file engine's cache and the database's pages see the whole data set
+    private long user() {
+        return FIRST_USER + next % USERS;
+    }
+
+    private String date() {
+        return dates[next++ / USERS % DAYS];
+    }
+
+    @Benchmark
+    public int addRecord() throws IOException {
+        long userId = user();
+        return storage.addRecord(userId, date(), "23:50", 100, "no");
+    }
+
+    @Benchmark
+    public boolean updateAmount() throws IOException {
+        long userId = user();
+        int id = 1 + next++ % (DAYS * FEEDS_PER_DAY);
+        return storage.updateRecord(id, userId, Optional.empty(), Optional.empty(), Optional.of(90 + id % 50), Optional.empty());
+    }
+
+    @Benchmark
+    public List<Record> recordsOfADay() throws IOException {
+        long userId = user();
+        return storage.listRecordsByDate(userId, date());
+    }
+
+    @Benchmark
+    public DailyStats statsOfADay() throws IOException {
+        long userId = user();
+        return storage.getDailyStats(userId, date());
+    }
+
+    @Benchmark
+    public List<DailyStats> statsOfAMonth() throws IOException {
+        long userId = user();
+        return storage.listDailyStats(userId, dates[0], dates[29]);
+    }
+
+    @Benchmark
+    public List<Record> latestRecords() throws IOException {
+        long userId = user();
+        next++;
+        return storage.listLatestRecords(userId, 10);
+    }
+}
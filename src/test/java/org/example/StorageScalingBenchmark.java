@@ -0,0 +1,83 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * How the add rate of the file engine grows from one writer to one writer per core. Writers keep to their own
+ * users, so they only meet on a lock stripe by hash collision, and the ratio of the two scores is what the striping
+ * buys on this machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageScalingBenchmark {
+    private static final int USERS = 64;
+    private static final long FIRST_USER = 1_000;
+
+    private Storage storage;
+
+    // Thread t owns the users congruent to t modulo the thread count
+    @State(Scope.Thread)
+    public static class Writer {
+        long firstUser;
+        int stride;
+        int next;
+
+        @Setup
+        public void assign(ThreadParams thread) {
+            firstUser = FIRST_USER + thread.getThreadIndex();
+            stride = thread.getThreadCount();
+        }
+
+        long user() {
+            return firstUser + (long) stride * (next++ % USERS);
+        }
+    }
+
+    @Setup
+    public void open() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        storage = new Storage();
+        storage.loadCacheIfNeeded();
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        storage.close();
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int addOneThread(Writer writer) throws IOException {
+        return add(writer);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int addThreadPerCore(Writer writer) throws IOException {
+        return add(writer);
+    }
+
+    private int add(Writer writer) throws IOException {
+        return storage.addRecord(writer.user(), "01:03:2024", "12:00", 120, "no");
+    }
+}
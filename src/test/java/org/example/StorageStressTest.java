@@ -0,0 +1,98 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Many threads writing to users spread over all lock stripes at once
+class StorageStressTest {
+    private static final int USERS = 64;
+    private static final int RECORDS_PER_USER = 40;
+    private static final long FIRST_USER = 1_000;
+
+    private interface Writer {
+        void write(Storage storage, int thread, int threads) throws IOException;
+    }
+
+    @BeforeEach
+    @AfterEach
+    void clean() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    @Test
+    void concurrentWritersNeverHandOutAnIdTwice() throws Exception {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        Map<Long, Set<Integer>> added = new ConcurrentHashMap<>();
+        Map<Long, Set<Integer>> deleted = new ConcurrentHashMap<>();
+        Storage storage = new Storage();
+        storage.loadCacheIfNeeded();
+        // Every thread writes every user, starting at a different one, so each user sees writers from all threads
+        run(storage, threads, (s, thread, count) -> {
+            for (int i = 0; i < USERS * RECORDS_PER_USER; i++) {
+                long userId = FIRST_USER + (thread + i) % USERS;
+                int id = s.addRecord(userId, "01:03:2024", String.format("%02d:%02d", i / 60 % 24, i % 60), 100 + i % 50, "no");
+                assertTrue(added.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(id), "id " + id + " handed out twice");
+                if (i % 5 == 0) {
+                    assertTrue(s.updateRegurg(id, userId, "milk"));
+                }
+                if (i % 7 == 0) {
+                    assertTrue(s.deleteById(id, userId));
+                    deleted.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(id);
+                }
+            }
+        });
+        storage.close();
+
+        Storage reloaded = new Storage();
+        reloaded.loadCacheIfNeeded();
+        for (long userId = FIRST_USER; userId < FIRST_USER + USERS; userId++) {
+            Set<Integer> expected = new HashSet<>(added.get(userId));
+            expected.removeAll(deleted.getOrDefault(userId, Set.of()));
+            Set<Integer> actual = new HashSet<>();
+            for (Record record : reloaded.listRecords(userId)) {
+                actual.add(record.getId());
+            }
+            assertEquals(threads * RECORDS_PER_USER, added.get(userId).size());
+            assertEquals(expected, actual, "records of user " + userId);
+        }
+        reloaded.close();
+    }
+
+    private static void run(Storage storage, int threads, Writer writer) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    writer.write(storage, thread, threads);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+final class TestFiles {
+    private TestFiles() {
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path p : paths) {
+            Files.delete(p);
+        }
+    }
+
+    // Synced record files for a run of users in the data directory, each with the same records spread over two months
+    static void writeUserFiles(long firstUser, int users, int recordsPerFile) throws IOException {
+        for (long userId = firstUser; userId < firstUser + users; userId++) {
+            Path file = DataLayout.userFile(userId, RecordFile.EXTENSION);
+            Files.createDirectories(file.getParent());
+            UserRecords records = new UserRecords(userId);
+            for (int id = 1; id <= recordsPerFile; id++) {
+                int minute = Utils.toEpochDay("01:01:2024") * Utils.MINUTES_PER_DAY + id * 180;
+                records.put(id, minute, 60 + id % 120, id % 3 == 0 ? Regurg.MILK.toByte() : Regurg.NO.toByte(), minute + 5);
+            }
+            // Written without an fsync per file, which would only slow down the setup, but marked as synced
+            RecordFile.write(file, records, false);
+            RecordFile.setVerifiedOffset(file, Files.size(file));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UserCacheTest {
+    private final ReentrantLock[] locks = {new ReentrantLock(), new ReentrantLock(), new ReentrantLock(), new ReentrantLock()};
+    private final Set<Long> pinned = new HashSet<>();
+    private final List<Long> evicted = new ArrayList<>();
+    // Room for two users of two records each
+    private final UserCache cache = new UserCache(20, userId -> locks[(int) userId], pinned::contains, evicted::add);
+
+    @Test
+    void evictsLeastRecentlyUsedFirst() {
+        cache.put(0, records(0, 2));
+        cache.put(1, records(1, 2));
+        cache.get(0);
+        cache.put(2, records(2, 2));
+
+        assertEquals(List.of(1L), evicted);
+        assertNotNull(cache.peek(0));
+        assertNull(cache.peek(1));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void skipsPinnedUsers() {
+        cache.put(0, records(0, 2));
+        cache.put(1, records(1, 2));
+        pinned.add(0L);
+        cache.put(2, records(2, 2));
+
+        assertEquals(List.of(1L), evicted);
+        assertNotNull(cache.peek(0));
+    }
+
+    @Test
+    void skipsUsersWhoseLockIsHeld() throws Exception {
+        cache.put(0, records(0, 2));
+        cache.put(1, records(1, 2));
+        // A writer on another thread has loaded user 0 but not yet queued its change
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            locks[0].lock();
+            try {
+                locked.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                locks[0].unlock();
+            }
+        });
+        writer.start();
+        locked.await();
+        cache.put(2, records(2, 2));
+        assertEquals(List.of(1L), evicted);
+        assertEquals(2, cache.getSize());
+
+        release.countDown();
+        writer.join();
+        cache.put(3, records(3, 2));
+        assertEquals(List.of(1L, 0L), evicted);
+    }
+
+    @Test
+    void skipsUsersLockedByTheCallingThread() {
+        cache.put(0, records(0, 2));
+        cache.put(1, records(1, 2));
+        locks[0].lock();
+        try {
+            cache.put(2, records(2, 2));
+        } finally {
+            locks[0].unlock();
+        }
+        assertEquals(List.of(1L), evicted);
+    }
+
+    @Test
+    void userReadWithoutTheLockIsPassedOverOnce() {
+        UserRecords read = records(0, 2);
+        read.snapshot();
+        cache.put(0, read);
+        cache.put(1, records(1, 2));
+        assertNotNull(cache.published(0));
+        assertNull(cache.published(1));
+
+        cache.put(2, records(2, 2));
+        assertEquals(List.of(1L), evicted);
+        cache.put(3, records(3, 2));
+        assertEquals(List.of(1L, 0L), evicted);
+        assertNull(cache.published(0));
+    }
+
+    private static UserRecords records(long userId, int count) {
+        UserRecords records = new UserRecords(userId);
+        for (int id = 1; id <= count; id++) {
+            records.put(id, id, 100, Regurg.NO.toByte(), 0);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,66 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class UserRecordsTest {
+    private static final byte NO = Regurg.NO.toByte();
+
+    @Test
+    void snapshotIsCopiedOnlyAfterAChange() {
+        UserRecords records = new UserRecords(1);
+        records.put(1, 1_000, 100, NO, 0);
+        assertNull(records.published());
+
+        UserSnapshot first = records.snapshot();
+        assertSame(first, records.published());
+        assertSame(first, records.snapshot());
+
+        records.put(2, 2_000, 120, NO, 0);
+        records.setAmount(records.indexOf(1), 110);
+        assertNull(records.published());
+        UserSnapshot second = records.snapshot();
+        assertNotSame(first, second);
+        assertEquals(2, second.size());
+    }
+
+    @Test
+    void writerPublishesOnlyForUsersThatHaveBeenRead() {
+        UserRecords records = new UserRecords(1);
+        records.put(1, 1_000, 100, NO, 0);
+        records.publish();
+        assertNull(records.published());
+
+        UserSnapshot first = records.snapshot();
+        records.put(2, 2_000, 120, NO, 0);
+        assertNull(records.published());
+        records.publish();
+        UserSnapshot second = records.published();
+        assertNotSame(first, second);
+        assertEquals(2, second.size());
+        assertSame(second, records.snapshot());
+    }
+
+    @Test
+    void earlierSnapshotIgnoresLaterWrites() {
+        UserRecords records = new UserRecords(1);
+        records.put(1, 1_000, 100, NO, 0);
+        records.put(2, 2_000, 120, NO, 0);
+        UserSnapshot before = records.snapshot();
+
+        records.setAmount(records.indexOf(1), 150);
+        records.remove(2);
+        records.put(3, 3_000, 90, NO, 0);
+
+        assertEquals(2, before.size());
+        assertEquals(100, before.listRecords().get(0).getAmountMl());
+        assertEquals(2, before.listRecords().get(1).getId());
+        UserSnapshot after = records.snapshot();
+        assertEquals(150, after.listRecords().get(0).getAmountMl());
+        assertEquals(3, after.listRecords().get(1).getId());
+    }
+}
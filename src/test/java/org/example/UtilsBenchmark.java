@@ -0,0 +1,150 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The char-level date/time parsers and formatters in Utils against the DateTimeFormatter path they replaced.
+ * The "formatter" methods are copies of the old Utils code. One date in eight is invalid, as typed input
+ * sometimes is, so the cost of exception-driven validation shows up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(UtilsBenchmark.SIZE)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+    static final int SIZE = 1024;
+    private final String[] dates = new String[SIZE];
+    private final String[] times = new String[SIZE];
+    private final String[] createdAt = new String[SIZE];
+    private final int[] minutes = new int[SIZE];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        int firstDay = (int) LocalDate.of(2023, 1, 1).toEpochDay();
+        for (int i = 0; i < SIZE; i++) {
+            int minute = (firstDay + random.nextInt(730)) * Utils.MINUTES_PER_DAY + random.nextInt(Utils.MINUTES_PER_DAY);
+            minutes[i] = minute;
+            dates[i] = i % 8 == 7 ? "32:01:2024" : Utils.formatDate(minute);
+            times[i] = Utils.formatTime(minute);
+            createdAt[i] = Utils.formatCreatedAt(minute);
+        }
+    }
+
+    @Benchmark
+    public int isValidDateFormatter() {
+        int valid = 0;
+        for (String date : dates) {
+            if (formatterIsValidDate(date)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public int isValidDateFast() {
+        int valid = 0;
+        for (String date : dates) {
+            if (Utils.isValidDate(date)) {
+                valid++;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public long parseDateTimeFormatter() {
+        long sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (i % 8 != 7) {
+                sum += Utils.toEpochMinute(LocalDateTime.of(LocalDate.parse(dates[i], Utils.DATE_FORMATTER),
+                        LocalTime.parse(times[i], Utils.TIME_FORMATTER)));
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long parseDateTimeFast() {
+        long sum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            if (i % 8 != 7) {
+                sum += Utils.epochMinute(Utils.parseEpochDay(dates[i]), Utils.parseMinuteOfDay(times[i]));
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long parseCreatedAtFormatter() {
+        long sum = 0;
+        for (String value : createdAt) {
+            sum += LocalDateTime.parse(value, Utils.CREATED_AT_FORMATTER).toEpochSecond(ZoneOffset.UTC) / 60;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long parseCreatedAtFast() {
+        long sum = 0;
+        for (String value : createdAt) {
+            sum += Utils.parseEpochMinute(value);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int formatFormatter() {
+        int length = 0;
+        for (int minute : minutes) {
+            LocalDateTime dateTime = Utils.fromEpochMinute(minute);
+            length += dateTime.format(Utils.DATE_FORMATTER).length() + dateTime.format(Utils.TIME_FORMATTER).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int formatFast() {
+        int length = 0;
+        for (int minute : minutes) {
+            length += Utils.formatDate(minute).length() + Utils.formatTime(minute).length();
+        }
+        return length;
+    }
+
+    // Utils.isValidDate before the fast path; the "dd:MM" short form is left out, as the inputs never use it
+    private static boolean formatterIsValidDate(String dateStr) {
+        String[] parts = dateStr.split(":");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            LocalDate.parse(dateStr, Utils.DATE_FORMATTER);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * What the startup warm-up costs and what it competes with: a start followed by the first request of a user
+ * outside the warmed set, with and without the warm-up running, and a start that waits until the warm-up has
+ * loaded all of its users. The warm-up settings are read once per JVM, so the variants fork with their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WarmUpBenchmark {
+    private static final int USERS = 10_000;
+    private static final int RECORDS_PER_FILE = 200;
+    private static final long FIRST_USER = 1_000_000;
+    private static final int WARM_USERS = 5_000;
+    private static final String WARM_UP = "-Dbabyfeedbot.warmup.users=" + WARM_USERS;
+
+    private Storage storage;
+
+    // The first user was written longest ago, so the warm-up, which takes the most recent files, leaves it out
+    @Setup
+    public void writeFiles() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+        TestFiles.writeUserFiles(FIRST_USER, USERS, RECORDS_PER_FILE);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < USERS; i++) {
+            Files.setLastModifiedTime(DataLayout.userFile(FIRST_USER + i, RecordFile.EXTENSION), FileTime.fromMillis(now - (USERS - i) * 1000L));
+        }
+        // A clean shutdown leaves the marker, so every start below skips recovery
+        Storage first = new Storage();
+        first.loadCacheIfNeeded();
+        first.close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws IOException {
+        storage.close();
+    }
+
+    @TearDown
+    public void deleteFiles() throws IOException {
+        TestFiles.deleteRecursively(DataLayout.root());
+    }
+
+    @Benchmark
+    public List<Record> firstRequest() throws IOException {
+        return startAndRead();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = WARM_UP)
+    public List<Record> firstRequestDuringWarmUp() throws IOException {
+        return startAndRead();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = WARM_UP)
+    public int warmUpToCompletion() throws IOException {
+        storage = new Storage();
+        storage.loadCacheIfNeeded();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (storage.getCache().getSize() < WARM_USERS) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Warm-up loaded only " + storage.getCache().getSize() + " users");
+            }
+            Thread.onSpinWait();
+        }
+        return storage.getCache().getSize();
+    }
+
+    private List<Record> startAndRead() throws IOException {
+        storage = new Storage();
+        storage.loadCacheIfNeeded();
+        return storage.listRecords(FIRST_USER);
+    }
+}